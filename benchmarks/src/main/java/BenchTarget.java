@@ -0,0 +1,77 @@
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-21-2023
+ * 
+ * @since 11-20-2023
+ * 
+ *        Default package side of the benchmarks, see bench.Target
+ * 
+ */
+public class BenchTarget implements bench.Target {
+    private BufferPool pool;
+    private int blockSize;
+    private Sort sort = new Sort();
+
+    @Override
+    public void generate(
+        String file,
+        int blocks,
+        String distribution,
+        long seed)
+        throws Exception {
+        new FileGenerator().generateFile(file, blocks,
+            FileGenerator.Distribution.forName(distribution), seed,
+            RecordLayout.DEFAULT);
+    }
+
+
+    @Override
+    public void open(String file, int numBuffers, int blockSize)
+        throws Exception {
+        close();
+        this.blockSize = blockSize;
+        pool = new BufferPool(numBuffers, blockSize, BlockStore.open("raf",
+            file), new LruPolicy(), new PoolStats());
+    }
+
+
+    @Override
+    public long size() {
+        return pool.getSize();
+    }
+
+
+    @Override
+    public int findBuffer(long blockNum) throws Exception {
+        return pool.findBuffer(blockNum * blockSize, blockNum).getData()[0];
+    }
+
+
+    @Override
+    public long partition(long left, long right) throws Exception {
+        long mid = sort.findPivot(left, right);
+        return sort.partition(pool, left, right, pool.readKey(mid));
+    }
+
+
+    @Override
+    public void insort(long left, long right) throws Exception {
+        sort.insort(pool, left, right);
+    }
+
+
+    @Override
+    public void close() throws Exception {
+        if (pool != null) {
+            pool.flushAll();
+            pool = null;
+        }
+    }
+
+
+    @Override
+    public void sortFile(String[] args) throws Exception {
+        Quicksort.main(args);
+    }
+}
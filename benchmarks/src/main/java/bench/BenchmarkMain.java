@@ -0,0 +1,42 @@
+package bench;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-20-2023
+ * 
+ * @since 11-20-2023
+ * 
+ *        Runs the benchmarks with the usual JMH command line, but always
+ *        writes the results as JSON, to jmh-result.json unless -rff names
+ *        another file, so runs of different releases can be compared
+ * 
+ */
+public class BenchmarkMain {
+
+    /**
+     * @param args
+     *            JMH command line, e.g. "SortBenchmark -p numBuffers=8"
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.shouldHelp() || cli.shouldList() || cli
+            .shouldListWithParams() || cli.shouldListProfilers() || cli
+                .shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        Options options = new OptionsBuilder().parent(cli).resultFormat(
+            ResultFormatType.JSON).result(cli.getResult().orElse(
+                "jmh-result.json")).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,97 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-20-2023
+ * 
+ * @since 11-20-2023
+ * 
+ *        Quicksort.main from the command line parameters to the stat file
+ *        Every iteration sorts a fresh copy of the input once
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EndToEndBenchmark {
+    @Param({ "100", "1000" })
+    private int fileBlocks;
+
+    @Param({ "10", "100" })
+    private int numBuffers;
+
+    @Param({ "4096", "16384" })
+    private int blockSize;
+
+    @Param({ "random", "ascii", "sorted", "reverse", "few-unique" })
+    private String distribution;
+
+    private Target target;
+    private Workspace workspace;
+    private String[] args;
+
+    /**
+     * Writes the input
+     * 
+     * @throws Exception
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        target = Target.load();
+        workspace = new Workspace(target, fileBlocks, distribution);
+        args = new String[] { workspace.data(), String.valueOf(numBuffers),
+            workspace.file("stats.txt"), "--blocksize=" + blockSize };
+    }
+
+
+    /**
+     * Restores the input
+     * 
+     * @throws Exception
+     */
+    @Setup(Level.Iteration)
+    public void reset() throws Exception {
+        workspace.reset();
+    }
+
+
+    /**
+     * Deletes the input
+     * 
+     * @throws Exception
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workspace.delete();
+    }
+
+
+    /**
+     * Sorts the file
+     * 
+     * @throws Exception
+     */
+    @Benchmark
+    public void quicksort() throws Exception {
+        target.sortFile(args);
+    }
+}
@@ -0,0 +1,97 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-20-2023
+ * 
+ * @since 11-20-2023
+ * 
+ *        Cost of one BufferPool.findBuffer call
+ *        The file holds twice as many blocks as the pool, so sweeping the
+ *        whole file misses on every call under LRU, while sweeping half
+ *        the pool hits on every call once warm
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FindBufferBenchmark {
+    @Param({ "4096", "16384" })
+    private int blockSize;
+
+    @Param({ "16", "256" })
+    private int numBuffers;
+
+    private Target target;
+    private Workspace workspace;
+    private long blocks;
+    private long hitBlock;
+    private long missBlock;
+
+    /**
+     * Writes the file and opens the pool
+     * 
+     * @throws Exception
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        target = Target.load();
+        long bytes = 2L * numBuffers * blockSize;
+        workspace = new Workspace(target, (int)(bytes / 4096), "random");
+        target.open(workspace.data(), numBuffers, blockSize);
+        blocks = target.size() / blockSize;
+    }
+
+
+    /**
+     * Closes the pool and deletes the file
+     * 
+     * @throws Exception
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        target.close();
+        workspace.delete();
+    }
+
+
+    /**
+     * @return First byte of a resident block
+     * @throws Exception
+     */
+    @Benchmark
+    public int hit() throws Exception {
+        hitBlock = (hitBlock + 1) % (numBuffers / 2);
+        return target.findBuffer(hitBlock);
+    }
+
+
+    /**
+     * @return First byte of a block read from the file
+     * @throws Exception
+     */
+    @Benchmark
+    public int miss() throws Exception {
+        missBlock = (missBlock + 1) % blocks;
+        return target.findBuffer(missBlock);
+    }
+}
@@ -0,0 +1,123 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-20-2023
+ * 
+ * @since 11-20-2023
+ * 
+ *        Sort.partition and Sort.insort over a whole file
+ *        Both rearrange the file, so every iteration runs once on a fresh
+ *        copy of the input and its time is taken as a single shot
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class SortBenchmark {
+    // Records per insertion sort, the size Sort hands to insort
+    private static final int INSORT_RECORDS = 10;
+
+    @Param({ "16", "128" })
+    private int fileBlocks;
+
+    @Param({ "8", "64" })
+    private int numBuffers;
+
+    @Param({ "4096", "16384" })
+    private int blockSize;
+
+    @Param({ "random", "ascii", "sorted", "reverse", "few-unique" })
+    private String distribution;
+
+    private Target target;
+    private Workspace workspace;
+
+    /**
+     * Writes the input
+     * 
+     * @throws Exception
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        target = Target.load();
+        workspace = new Workspace(target, fileBlocks, distribution);
+    }
+
+
+    /**
+     * Restores the input and opens a cold pool over it
+     * 
+     * @throws Exception
+     */
+    @Setup(Level.Iteration)
+    public void open() throws Exception {
+        workspace.reset();
+        target.open(workspace.data(), numBuffers, blockSize);
+    }
+
+
+    /**
+     * Writes back the dirty blocks
+     * 
+     * @throws Exception
+     */
+    @TearDown(Level.Iteration)
+    public void close() throws Exception {
+        target.close();
+    }
+
+
+    /**
+     * Deletes the input
+     * 
+     * @throws Exception
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workspace.delete();
+    }
+
+
+    /**
+     * @return First position of the right partition
+     * @throws Exception
+     */
+    @Benchmark
+    public long partition() throws Exception {
+        return target.partition(0, target.size() - 4);
+    }
+
+
+    /**
+     * Insertion sorts the file in runs of INSORT_RECORDS
+     * 
+     * @throws Exception
+     */
+    @Benchmark
+    public void insort() throws Exception {
+        long run = INSORT_RECORDS * 4;
+        for (long left = 0; left < target.size(); left += run) {
+            target.insort(left, Math.min(left + run, target.size()) - 4);
+        }
+    }
+}
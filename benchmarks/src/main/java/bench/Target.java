@@ -0,0 +1,119 @@
+package bench;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-21-2023
+ * 
+ * @since 11-20-2023
+ * 
+ *        What the benchmarks measure, seen from a named package
+ *        The sort classes live in the default package, which a named
+ *        package cannot import, and JMH will not generate code for a
+ *        benchmark in the default package, so the benchmarks reach the
+ *        sort through this interface and the default package BenchTarget
+ * 
+ */
+public interface Target {
+
+    /**
+     * Writes an input file of 4 byte records
+     * 
+     * @param file
+     *            File to create
+     * @param blocks
+     *            Size of the file in 4096 byte blocks
+     * @param distribution
+     *            A FileGenerator distribution, e.g. "organ-pipe"
+     * @param seed
+     *            Seed of the keys, so every fork sorts the same input
+     * @throws Exception
+     */
+    void generate(String file, int blocks, String distribution, long seed)
+        throws Exception;
+
+
+    /**
+     * Opens a BufferPool over a file, closing any pool already open
+     * 
+     * @param file
+     *            Data file
+     * @param numBuffers
+     *            Buffers in the pool
+     * @param blockSize
+     *            Bytes per block
+     * @throws Exception
+     */
+    void open(String file, int numBuffers, int blockSize) throws Exception;
+
+
+    /**
+     * @return Size of the open file in bytes
+     */
+    long size();
+
+
+    /**
+     * Calls BufferPool.findBuffer
+     * 
+     * @param blockNum
+     *            Block wanted
+     * @return First byte of the block, for the benchmark to consume
+     * @throws Exception
+     */
+    int findBuffer(long blockNum) throws Exception;
+
+
+    /**
+     * Calls Sort.partition once over a range, around the key of its middle
+     * record
+     * 
+     * @param left
+     *            Position of the first record
+     * @param right
+     *            Position of the last record
+     * @return First position of the right partition
+     * @throws Exception
+     */
+    long partition(long left, long right) throws Exception;
+
+
+    /**
+     * Calls Sort.insort
+     * 
+     * @param left
+     *            Position of the first record
+     * @param right
+     *            Position of the last record
+     * @throws Exception
+     */
+    void insort(long left, long right) throws Exception;
+
+
+    /**
+     * Flushes and closes the open pool
+     * 
+     * @throws Exception
+     */
+    void close() throws Exception;
+
+
+    /**
+     * Calls Quicksort.main
+     * 
+     * @param args
+     *            Command line parameters
+     * @throws Exception
+     */
+    void sortFile(String[] args) throws Exception;
+
+
+    /**
+     * @return The default package implementation
+     * @throws Exception
+     */
+    static Target load() throws Exception {
+        return (Target)Class.forName("BenchTarget").getDeclaredConstructor()
+            .newInstance();
+    }
+}
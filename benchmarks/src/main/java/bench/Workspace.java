@@ -0,0 +1,86 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-20-2023
+ * 
+ * @since 11-20-2023
+ * 
+ *        Scratch directory holding a benchmark's pristine input and the
+ *        copy each run sorts in place
+ * 
+ */
+class Workspace {
+    private Path dir;
+    private Path original;
+    private Path data;
+
+    /**
+     * Constructor, generates the pristine input
+     * 
+     * @param target
+     *            Writes the input
+     * @param blocks
+     *            Size of the input in 4096 byte blocks
+     * @param distribution
+     *            A FileGenerator distribution, e.g. "organ-pipe"
+     * @throws Exception
+     */
+    Workspace(Target target, int blocks, String distribution)
+        throws Exception {
+        dir = Files.createTempDirectory("quicksort-bench");
+        original = dir.resolve("input.bin");
+        data = dir.resolve("data.bin");
+        target.generate(original.toString(), blocks, distribution, 42);
+        reset();
+    }
+
+
+    /**
+     * Replaces the working copy with the pristine input
+     * 
+     * @throws IOException
+     */
+    void reset() throws IOException {
+        Files.copy(original, data, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+
+    /**
+     * @return Path of the working copy
+     */
+    String data() {
+        return data.toString();
+    }
+
+
+    /**
+     * @param name
+     *            File name
+     * @return Path of another file in the workspace
+     */
+    String file(String name) {
+        return dir.resolve(name).toString();
+    }
+
+
+    /**
+     * Deletes the workspace
+     * 
+     * @throws IOException
+     */
+    void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile()
+                .delete());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-10-2023
+ * 
+ * @since 11-10-2023
+ * 
+ *        Adaptive Replacement Cache (Megiddo and Modha)
+ *        T1 holds blocks seen once and T2 blocks seen again, the ghost
+ *        lists B1 and B2 remember recent victims of each and move the
+ *        target size of T1 toward whichever list would have hit
+ * 
+ */
+public class ArcPolicy implements BufferPool.ReplacementPolicy {
+    private static final int T1 = 1;
+    private static final int T2 = 2;
+
+    private BufferList t1 = new BufferList();
+    private BufferList t2 = new BufferList();
+    private LinkedHashSet<Long> b1 = new LinkedHashSet<Long>();
+    private LinkedHashSet<Long> b2 = new LinkedHashSet<Long>();
+    private int capacity;
+    private int target;
+
+    /**
+     * Constructor
+     * 
+     * @param numBuffers
+     *            Number of buffers within the pool
+     */
+    public ArcPolicy(int numBuffers) {
+        this.capacity = numBuffers;
+    }
+
+
+    @Override
+    public void recordHit(Buffer buff) {
+        if (buff.getTag() == T1) {
+            t1.remove(buff);
+            buff.setTag(T2);
+            t2.addFirst(buff);
+        }
+        else {
+            t2.moveToFront(buff);
+        }
+    }
+
+
+    @Override
+    public void recordLoad(Buffer buff) {
+        Long pos = buff.getPos();
+        if (b1.remove(pos) || b2.remove(pos)) {
+            buff.setTag(T2);
+            t2.addFirst(buff);
+        }
+        else {
+            buff.setTag(T1);
+            t1.addFirst(buff);
+        }
+    }
+
+
+    @Override
+    public Buffer evict(long pos) {
+        Long key = pos;
+        boolean inB2 = false;
+        if (b1.contains(key)) {
+            target = Math.min(capacity, target + Math.max(b2.size() / b1
+                .size(), 1));
+        }
+        else if (b2.contains(key)) {
+            target = Math.max(0, target - Math.max(b1.size() / b2.size(), 1));
+            inB2 = true;
+        }
+        else if (t1.size() + b1.size() >= capacity) {
+            if (t1.size() < capacity) {
+                removeOldest(b1);
+            }
+            else {
+                // B1 is empty and T1 fills the pool, drop T1's LRU outright
+                return t1.removeLast();
+            }
+        }
+        else if (t1.size() + t2.size() + b1.size() + b2.size() >= 2
+            * capacity) {
+            removeOldest(b2);
+        }
+
+        if (t1.size() > 0 && (t2.size() == 0 || t1.size() > target
+            || (inB2 && t1.size() == target))) {
+            Buffer victim = t1.removeLast();
+            b1.add(victim.getPos());
+            return victim;
+        }
+        Buffer victim = t2.removeLast();
+        b2.add(victim.getPos());
+        return victim;
+    }
+
+
+    /**
+     * Forgets the least recent block of a ghost list
+     * 
+     * @param ghosts
+     *            B1 or B2
+     */
+    private void removeOldest(LinkedHashSet<Long> ghosts) {
+        Iterator<Long> oldest = ghosts.iterator();
+        if (oldest.hasNext()) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+
+    @Override
+    public String getName() {
+        return "ARC";
+    }
+}
@@ -0,0 +1,414 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-27-2023
+ * 
+ * @since 11-27-2023
+ * 
+ *        Sorts many files at once in one JVM
+ *        A fixed pool of jobs sorts the files, each job borrows buffers
+ *        from one shared Budget for as long as its file takes
+ *        A file that fits its buffers is sorted in memory, the rest go
+ *        through a BufferPool of exactly the buffers borrowed, so the
+ *        running jobs never hold more than the budget between them
+ *        A file that fails is reported and the others carry on
+ * 
+ */
+public class BatchSort {
+    private List<String> files;
+    private int blockSize;
+    private int jobs;
+    private RecordLayout layout;
+    private String storeKind;
+    private Budget budget;
+
+    private List<Result> results = new ArrayList<Result>();
+    private long wallNanos;
+
+    /**
+     * Constructor
+     * 
+     * @param files
+     *            Data files to sort
+     * @param numBuffers
+     *            Buffers shared by every job
+     * @param blockSize
+     *            Size of each data block/buffer
+     * @param jobs
+     *            Files sorted at once
+     * @param layout
+     *            Layout of the records of every file
+     * @param storeKind
+     *            Block store of the files not sorted in memory
+     */
+    public BatchSort(
+        List<String> files,
+        int numBuffers,
+        int blockSize,
+        int jobs,
+        RecordLayout layout,
+        String storeKind) {
+        this.files = files;
+        this.blockSize = blockSize;
+        this.jobs = Math.max(1, jobs);
+        this.layout = layout;
+        this.storeKind = storeKind;
+        this.budget = new Budget(numBuffers);
+    }
+
+
+    /**
+     * @param path
+     *            A directory, whose files are all sorted, or a text file
+     *            naming one data file per line
+     * @return The data files, directory entries in name order
+     * @throws IOException
+     */
+    public static List<String> listFiles(String path) throws IOException {
+        Path source = Paths.get(path);
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> entries = Files.list(source)) {
+                return entries.filter(Files::isRegularFile).map(Path::toString)
+                    .sorted().collect(Collectors.toList());
+            }
+        }
+        List<String> names = new ArrayList<String>();
+        for (String line : Files.readAllLines(source)) {
+            if (!line.trim().isEmpty()) {
+                names.add(line.trim());
+            }
+        }
+        return names;
+    }
+
+
+    /**
+     * Sorts every file, returning once all of them are done
+     * 
+     * @throws Exception
+     */
+    public void sort() throws Exception {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        try {
+            List<Future<Result>> pending = new ArrayList<Future<Result>>();
+            for (String file : files) {
+                pending.add(pool.submit(() -> sortFile(file)));
+            }
+            for (Future<Result> result : pending) {
+                results.add(result.get());
+            }
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error)e.getCause();
+            }
+            throw (Exception)e.getCause();
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        wallNanos = System.nanoTime() - start;
+    }
+
+
+    /**
+     * Sorts one file with the buffers the budget grants it
+     * 
+     * @param file
+     *            Data file
+     * @return What the sort took
+     * @throws InterruptedException
+     */
+    private Result sortFile(String file) throws InterruptedException {
+        long size = new File(file).length();
+        long blocks = (size + blockSize - 1) / blockSize;
+        // 4 byte records are also sorted as an int[] when in memory
+        boolean packed = layout.isDefault() && size
+            / BufferPool.RECORD_SIZE <= StubbedBufferPool.MAX_PACKED;
+        long inMemory = layout.isDefault() ? 2 * blocks : blocks;
+        int buffers = budget.acquire((int)Math.min(Math.max(1, inMemory),
+            budget.getTotal()));
+        Result result = new Result(file, size, buffers);
+        long start = System.nanoTime();
+        try {
+            if (inMemory <= buffers && (packed || !layout.isDefault())) {
+                result.engine = "memory";
+                sortInMemory(file, result.stats);
+            }
+            else {
+                result.engine = "quick";
+                sortInPool(file, buffers, result.stats);
+            }
+        }
+        catch (Exception e) {
+            result.error = e.toString();
+        }
+        finally {
+            budget.release(buffers);
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+
+    /**
+     * @param file
+     *            Data file, read whole
+     * @param stats
+     *            Counters the store updates
+     * @throws Exception
+     */
+    private void sortInMemory(String file, PoolStats stats) throws Exception {
+        StubbedBufferPool memory = new StubbedBufferPool(file, blockSize,
+            stats);
+        if (layout.isDefault()) {
+            memory.sortPacked();
+        }
+        else if (memory.getSize() >= layout.getRecordSize()) {
+            int rec = layout.getRecordSize();
+            new Sort(layout).quickSort(memory, 0, (memory.getSize() / rec - 1)
+                * rec);
+        }
+        memory.flushAll();
+    }
+
+
+    /**
+     * @param file
+     *            Data file
+     * @param buffers
+     *            Buffers of the pool
+     * @param stats
+     *            Counters the pool updates
+     * @throws Exception
+     */
+    private void sortInPool(String file, int buffers, PoolStats stats)
+        throws Exception {
+        BufferPool pool = new BufferPool(buffers, blockSize, BlockStore.open(
+            storeKind, file), BufferPool.ReplacementPolicy.forName("lru",
+                buffers), stats);
+        Sort sort = new Sort(layout);
+        sort.setInMemoryThreshold(pool);
+        int rec = layout.getRecordSize();
+        sort.quickSort(pool, 0, (pool.getSize() / rec - 1) * rec);
+        pool.flushAll();
+    }
+
+
+    /**
+     * Prints a block of lines per file, then the totals
+     * 
+     * @param writer
+     *            Destination
+     */
+    public void printText(PrintWriter writer) {
+        long bytes = 0;
+        long reads = 0;
+        long writes = 0;
+        int failed = 0;
+        for (Result result : results) {
+            writer.println("File: " + result.file);
+            writer.println("Engine: " + result.engine);
+            writer.println("Buffers: " + result.buffers);
+            writer.println("Disk Reads: " + result.stats.getReads());
+            writer.println("Disk Writes: " + result.stats.getWrites());
+            writer.println("Execution Time: " + result.nanos / 1000000
+                + " milliseconds");
+            writer.printf("Throughput: %.2f MB/s%n", megabytesPerSecond(
+                result.size, result.nanos));
+            if (result.error != null) {
+                writer.println("Error: " + result.error);
+                failed++;
+            }
+            else {
+                bytes += result.size;
+            }
+            reads += result.stats.getReads();
+            writes += result.stats.getWrites();
+        }
+        writer.println("Files: " + results.size());
+        writer.println("Failed Files: " + failed);
+        writer.println("Jobs: " + jobs);
+        writer.println("Budget Buffers: " + budget.getTotal());
+        writer.println("Bytes Sorted: " + bytes);
+        writer.println("Disk Reads: " + reads);
+        writer.println("Disk Writes: " + writes);
+        writer.println("Execution Time: " + wallNanos / 1000000
+            + " milliseconds");
+        writer.printf("Throughput: %.2f MB/s%n", megabytesPerSecond(bytes,
+            wallNanos));
+    }
+
+
+    /**
+     * @param bytes
+     *            Bytes sorted
+     * @param nanos
+     *            Time taken
+     * @return Megabytes per second
+     */
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return bytes / (1024.0 * 1024.0) / Math.max(1, nanos) * 1e9;
+    }
+
+
+    /**
+     * @return Number of files that could not be sorted
+     */
+    public int getFailures() {
+        int failed = 0;
+        for (Result result : results) {
+            if (result.error != null) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+
+    /**
+     * @return Largest number of buffers ever lent out at once
+     */
+    public int getPeakBuffers() {
+        return budget.getPeak();
+    }
+
+
+    /**
+     * What sorting one file took
+     */
+    private static class Result {
+        private final String file;
+        private final long size;
+        private final int buffers;
+        private final PoolStats stats = new PoolStats();
+        private String engine;
+        private String error;
+        private long nanos;
+
+        /**
+         * @param file
+         *            Data file
+         * @param size
+         *            Bytes in the file
+         * @param buffers
+         *            Buffers granted
+         */
+        Result(String file, long size, int buffers) {
+            this.file = file;
+            this.size = size;
+            this.buffers = buffers;
+        }
+    }
+
+
+    /**
+     * Buffers shared by the jobs with fair-share quotas
+     * A job asks for the buffers it could use and gets at most the
+     * budget split evenly over the jobs running or waiting, so small
+     * files take only what they need and large ones divide the rest
+     * A share is never below MIN_SHARE buffers, with more jobs than
+     * that allows large files wait rather than thrash a tiny pool
+     * The grant depends on how many jobs contend at that moment, so a
+     * file needing more than MIN_SHARE may be sorted in memory alone
+     * and through a pool when others run beside it
+     */
+    public static class Budget {
+        /** Fewest buffers a job is made to sort with */
+        public static final int MIN_SHARE = 8;
+
+        private final int total;
+        private final int minShare;
+        private int available;
+        private int contenders;
+        private int peak;
+
+        /**
+         * @param total
+         *            Buffers in the budget
+         */
+        public Budget(int total) {
+            if (total < 1) {
+                throw new IllegalArgumentException("Budget needs a buffer");
+            }
+            this.total = total;
+            this.available = total;
+            this.minShare = Math.min(MIN_SHARE, total);
+        }
+
+
+        /**
+         * Waits for a fair share of the budget
+         * 
+         * @param wanted
+         *            Buffers the job could use, between 1 and the total
+         * @return Buffers granted, to be given back to release
+         * @throws InterruptedException
+         */
+        public synchronized int acquire(int wanted)
+            throws InterruptedException {
+            contenders++;
+            while (true) {
+                int grant = Math.min(wanted, Math.max(minShare, total
+                    / contenders));
+                if (grant <= available) {
+                    available -= grant;
+                    peak = Math.max(peak, total - available);
+                    return grant;
+                }
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    contenders--;
+                    throw e;
+                }
+            }
+        }
+
+
+        /**
+         * Gives buffers back once a job is done
+         * 
+         * @param buffers
+         *            Buffers granted by acquire
+         */
+        public synchronized void release(int buffers) {
+            available += buffers;
+            contenders--;
+            notifyAll();
+        }
+
+
+        /**
+         * @return Buffers in the budget
+         */
+        public int getTotal() {
+            return total;
+        }
+
+
+        /**
+         * @return Largest number of buffers lent out at once
+         */
+        public synchronized int getPeak() {
+            return peak;
+        }
+    }
+}
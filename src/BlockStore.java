@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-02-2023
+ * 
+ * @since 11-02-2023
+ * 
+ *        Block level access to the data file underneath the BufferPool
+ * 
+ */
+public interface BlockStore {
+
+    /**
+     * Reads bytes from the data file
+     * 
+     * @param pos
+     *            Absolute position in the data file
+     * @param data
+     *            Array to fill, up to its length
+     * @return Number of bytes read, or -1 if pos is past the end of the file
+     * @throws IOException
+     */
+    default int read(long pos, byte[] data) throws IOException {
+        return read(pos, data, 0, data.length);
+    }
+
+
+    /**
+     * Reads bytes from the data file, stopping early only at the end of
+     * the file
+     * 
+     * @param pos
+     *            Absolute position in the data file
+     * @param data
+     *            Array to fill
+     * @param off
+     *            Offset of the first byte within data
+     * @param len
+     *            Number of bytes wanted
+     * @return Number of bytes read, or -1 if pos is past the end of the file
+     * @throws IOException
+     */
+    int read(long pos, byte[] data, int off, int len) throws IOException;
+
+
+    /**
+     * Writes bytes to the data file
+     * 
+     * @param pos
+     *            Absolute position in the data file
+     * @param data
+     *            Array holding the bytes to write
+     * @param off
+     *            Offset of the first byte within data
+     * @param len
+     *            Number of bytes to write
+     * @throws IOException
+     */
+    void write(long pos, byte[] data, int off, int len) throws IOException;
+
+
+    /**
+     * Writes several byte ranges back to back starting at pos
+     * Stores that can gather them into one call override this, the
+     * default writes them one at a time
+     * 
+     * @param pos
+     *            Absolute position in the data file
+     * @param srcs
+     *            Array backed buffers, each written from its position to
+     *            its limit
+     * @param count
+     *            Number of buffers in srcs to write
+     * @throws IOException
+     */
+    default void write(long pos, ByteBuffer[] srcs, int count)
+        throws IOException {
+        for (int i = 0; i < count; i++) {
+            ByteBuffer src = srcs[i];
+            int len = src.remaining();
+            write(pos, src.array(), src.arrayOffset() + src.position(), len);
+            pos += len;
+        }
+    }
+
+
+    /**
+     * @return Absolute size of the data file
+     * @throws IOException
+     */
+    long length() throws IOException;
+
+
+    /**
+     * @return True if reads and writes may come from several threads at
+     *         once
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
+
+
+    /**
+     * Makes every write so far durable, for checkpoints that must not
+     * get ahead of the data
+     * 
+     * @throws IOException
+     */
+    void force() throws IOException;
+
+
+    /**
+     * Releases the data file
+     * 
+     * @throws IOException
+     */
+    void close() throws IOException;
+
+
+    /**
+     * Opens a block store of the given kind
+     * 
+     * @param kind
+     *            One of "raf", "channel" or "mmap"
+     * @param filePath
+     *            Data filename
+     * @return The opened block store
+     * @throws IOException
+     */
+    static BlockStore open(String kind, String filePath) throws IOException {
+        switch (kind) {
+            case "raf":
+                return new RafBlockStore(filePath);
+            case "channel":
+                return new ChannelBlockStore(filePath);
+            case "mmap":
+                return new MappedBlockStore(filePath);
+            default:
+                throw new IllegalArgumentException("Unknown block store: "
+                    + kind);
+        }
+    }
+}
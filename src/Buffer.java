@@ -11,8 +11,20 @@
 public class Buffer {
     private final int bufferSize;
     private byte[] data;
-    private int pos;
+    private long pos;
     private boolean isDirty;
+    // Bytes from dirtyFrom up to dirtyTo cover every change, empty when
+    // the buffer is clean
+    private int dirtyFrom;
+    private int dirtyTo;
+
+    // Intrusive links for a policy's BufferList and the block index chain
+    private Buffer prev;
+    private Buffer next;
+    private Buffer hashNext;
+
+    // State owned by the pool's replacement policy
+    private int tag;
 
     /**
      * Constructor
@@ -23,8 +35,9 @@ public class Buffer {
     public Buffer(int bufferSize) {
         this.bufferSize = bufferSize;
         this.data = new byte[bufferSize];
-        this.isDirty = false;
+        setIsDirty(false);
         this.pos = -1;
+        this.tag = -1;
     }
 
 
@@ -34,7 +47,7 @@ public class Buffer {
      * @param pos
      *            Absolute Position within the data file
      */
-    public void setPos(int pos) {
+    public void setPos(long pos) {
         this.pos = pos;
     }
 
@@ -44,7 +57,7 @@ public class Buffer {
      * 
      * @return Absolute Position within the data file
      */
-    public int getPos() {
+    public long getPos() {
         return pos;
     }
 
@@ -65,6 +78,53 @@ public class Buffer {
      */
     public void setIsDirty(boolean isDirty) {
         this.isDirty = isDirty;
+        this.dirtyFrom = isDirty ? 0 : bufferSize;
+        this.dirtyTo = isDirty ? bufferSize : 0;
+    }
+
+
+    /**
+     * Marks bytes as edited, widening the dirty extent to cover them
+     * 
+     * @param from
+     *            Relative position of the first byte edited
+     * @param to
+     *            Relative position just past the last byte edited
+     */
+    public void markDirty(int from, int to) {
+        this.isDirty = true;
+        this.dirtyFrom = Math.min(dirtyFrom, from);
+        this.dirtyTo = Math.max(dirtyTo, to);
+    }
+
+
+    /**
+     * Takes over another buffer's dirty state, for when their arrays are
+     * swapped
+     * 
+     * @param other
+     *            Buffer whose state is copied
+     */
+    public void takeDirty(Buffer other) {
+        this.isDirty = other.isDirty;
+        this.dirtyFrom = other.dirtyFrom;
+        this.dirtyTo = other.dirtyTo;
+    }
+
+
+    /**
+     * @return Relative position of the first edited byte
+     */
+    public int getDirtyFrom() {
+        return dirtyFrom;
+    }
+
+
+    /**
+     * @return Relative position just past the last edited byte
+     */
+    public int getDirtyTo() {
+        return dirtyTo;
     }
 
 
@@ -86,6 +146,19 @@ public class Buffer {
     }
 
 
+    /**
+     * Exchanges byte arrays with another buffer of the same size
+     * 
+     * @param other
+     *            Buffer taking this buffer's array
+     */
+    public void swapData(Buffer other) {
+        byte[] temp = this.data;
+        this.data = other.data;
+        other.data = temp;
+    }
+
+
     /**
      * Gets bytes from byte array
      * 
@@ -100,4 +173,72 @@ public class Buffer {
         System.arraycopy(data, off, space, 0, size);
     }
 
+
+    /**
+     * @return The more recently used neighbour in its BufferList
+     */
+    public Buffer getPrev() {
+        return prev;
+    }
+
+
+    /**
+     * @param prev
+     *            The more recently used neighbour in its BufferList
+     */
+    public void setPrev(Buffer prev) {
+        this.prev = prev;
+    }
+
+
+    /**
+     * @return The less recently used neighbour in its BufferList
+     */
+    public Buffer getNext() {
+        return next;
+    }
+
+
+    /**
+     * @param next
+     *            The less recently used neighbour in its BufferList
+     */
+    public void setNext(Buffer next) {
+        this.next = next;
+    }
+
+
+    /**
+     * @return The next buffer in the same block index bucket
+     */
+    public Buffer getHashNext() {
+        return hashNext;
+    }
+
+
+    /**
+     * @param hashNext
+     *            The next buffer in the same block index bucket
+     */
+    public void setHashNext(Buffer hashNext) {
+        this.hashNext = hashNext;
+    }
+
+
+    /**
+     * @return Replacement policy state, -1 until the policy sets it
+     */
+    public int getTag() {
+        return tag;
+    }
+
+
+    /**
+     * @param tag
+     *            Replacement policy state
+     */
+    public void setTag(int tag) {
+        this.tag = tag;
+    }
+
 }
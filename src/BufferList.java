@@ -0,0 +1,107 @@
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-10-2023
+ * 
+ * @since 11-10-2023
+ * 
+ *        Doubly-linked list of buffers threaded through the buffers'
+ *        own links, a buffer can be in at most one list at a time
+ *        Head is the most recently used end
+ * 
+ */
+public class BufferList {
+    private Buffer head;
+    private Buffer tail;
+    private int size;
+
+    /**
+     * @return Number of buffers in the list
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * @return Buffer at the least recently used end, or null if empty
+     */
+    public Buffer getLast() {
+        return tail;
+    }
+
+
+    /**
+     * Adds a buffer at the most recently used end
+     * 
+     * @param buff
+     *            Buffer not currently in any list
+     */
+    public void addFirst(Buffer buff) {
+        buff.setPrev(null);
+        buff.setNext(head);
+        if (head == null) {
+            tail = buff;
+        }
+        else {
+            head.setPrev(buff);
+        }
+        head = buff;
+        size++;
+    }
+
+
+    /**
+     * Unlinks a buffer
+     * 
+     * @param buff
+     *            Buffer in this list
+     */
+    public void remove(Buffer buff) {
+        Buffer prev = buff.getPrev();
+        Buffer next = buff.getNext();
+        if (prev == null) {
+            head = next;
+        }
+        else {
+            prev.setNext(next);
+        }
+        if (next == null) {
+            tail = prev;
+        }
+        else {
+            next.setPrev(prev);
+        }
+        buff.setPrev(null);
+        buff.setNext(null);
+        size--;
+    }
+
+
+    /**
+     * Unlinks the buffer at the least recently used end
+     * 
+     * @return The removed buffer, or null if empty
+     */
+    public Buffer removeLast() {
+        Buffer buff = tail;
+        if (buff != null) {
+            remove(buff);
+        }
+        return buff;
+    }
+
+
+    /**
+     * Moves a buffer to the most recently used end
+     * 
+     * @param buff
+     *            Buffer in this list
+     */
+    public void moveToFront(Buffer buff) {
+        if (buff != head) {
+            remove(buff);
+            addFirst(buff);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * @author Xavier AKers
@@ -9,18 +10,58 @@ import java.io.RandomAccessFile;
  * @since 10-16-2023
  * 
  *        BufferPool implementing message-passing interface
- *        Implementing LRU updating
+ *        Replacement is delegated to a ReplacementPolicy, LRU by default
+ *        Dirty blocks that sit next to each other in the file are written
+ *        back with one gathering write
  */
-public class BufferPool {
+public class BufferPool implements RecordStore {
+    /** Size of a record in bytes */
+    public static final int RECORD_SIZE = 4;
+
     private int bufferSize;
     private Buffer[] pool;
     private int numBuffers;
-    private RandomAccessFile raf;
+    private BlockStore store;
+    private long fileSize;
+    private long windowStart;
+    private long windowEnd;
     private byte[] taxi;
+    // Holds a key that spans two blocks
+    private byte[] keyTaxi;
+
+    // Block number -> resident buffer, chained through Buffer.hashNext
+    private Buffer[] blockIndex;
+    private int indexMask;
+
+    private ReplacementPolicy policy;
+    // Buffers below this index have held a block
+    private int loaded;
+
+    private WriteBehindFlusher flusher;
+    // Buffers written by flushers already stopped
+    private long writtenBehind;
+
+    /** Most blocks handed to the store in one gathering write */
+    private static final int MAX_RUN = 64;
+    private Buffer[] run;
+    private ByteBuffer[] gather;
+    // Dirty neighbours written along with a dirty victim, 0 turns it off
+    private int coalesce;
+
+    // Dirty extents up to this fraction of a block are written alone
+    private double partialDensity;
+
+    // Read-ahead, one slot per detected sequential stream
+    private static final int STREAMS = 4;
+    private Prefetcher prefetcher;
+    private int prefetchDepth;
+    private long[] streamLast;
+    private int[] streamDir;
+    private int[] streamRun;
+    private long[] streamAhead;
+    private int nextStream;
 
-    private int[] cacheHits;
-    private int[] diskReads;
-    private int[] diskWrites;
+    private PoolStats stats;
 
     /**
      * Constructor
@@ -47,15 +88,118 @@ public class BufferPool {
         int[] diskReads,
         int[] diskWrites)
         throws Exception {
+        this(numBuffers, blockSize, new RafBlockStore(filePath), cacheHits,
+            diskReads, diskWrites);
+    }
+
+
+    /**
+     * Constructor
+     * 
+     * @param numBuffers
+     *            Number of buffers within the pool
+     * @param blockSize
+     *            Size of each data block/buffer
+     * @param store
+     *            Block storage holding the data file
+     * @param cacheHits
+     *            Stores number of cacheHits
+     * @param diskReads
+     *            Stores number of diskReads
+     * @param diskWrites
+     *            Stores number of diskWrites
+     * @throws IOException
+     */
+    public BufferPool(
+        int numBuffers,
+        int blockSize,
+        BlockStore store,
+        int[] cacheHits,
+        int[] diskReads,
+        int[] diskWrites)
+        throws IOException {
+        this(numBuffers, blockSize, store, new LruPolicy(), cacheHits,
+            diskReads, diskWrites);
+    }
+
+
+    /**
+     * Constructor
+     * 
+     * @param numBuffers
+     *            Number of buffers within the pool
+     * @param blockSize
+     *            Size of each data block/buffer
+     * @param store
+     *            Block storage holding the data file
+     * @param policy
+     *            Chooses which buffer to reuse on a miss
+     * @param cacheHits
+     *            Stores number of cacheHits
+     * @param diskReads
+     *            Stores number of diskReads
+     * @param diskWrites
+     *            Stores number of diskWrites
+     * @throws IOException
+     */
+    public BufferPool(
+        int numBuffers,
+        int blockSize,
+        BlockStore store,
+        ReplacementPolicy policy,
+        int[] cacheHits,
+        int[] diskReads,
+        int[] diskWrites)
+        throws IOException {
+        this(numBuffers, blockSize, store, policy, new PoolStats(cacheHits,
+            diskReads, diskWrites));
+    }
+
 
-        this.cacheHits = cacheHits;
-        this.diskReads = diskReads;
-        this.diskWrites = diskWrites;
+    /**
+     * Constructor
+     * 
+     * @param numBuffers
+     *            Number of buffers within the pool
+     * @param blockSize
+     *            Size of each data block/buffer
+     * @param store
+     *            Block storage holding the data file
+     * @param policy
+     *            Chooses which buffer to reuse on a miss
+     * @param stats
+     *            Receives the pool's counters
+     * @throws IOException
+     */
+    public BufferPool(
+        int numBuffers,
+        int blockSize,
+        BlockStore store,
+        ReplacementPolicy policy,
+        PoolStats stats)
+        throws IOException {
+
+        this.stats = stats;
         this.bufferSize = blockSize;
         this.numBuffers = numBuffers;
         this.taxi = new byte[4];
-        this.raf = new RandomAccessFile(filePath, "rw");
+        this.keyTaxi = new byte[8];
+        this.store = store;
+        this.policy = policy;
+        this.fileSize = store.length();
+        this.windowStart = 0;
+        // A short last block is written back short, not padded out
+        this.windowEnd = fileSize;
         this.pool = new Buffer[numBuffers];
+        this.run = new Buffer[Math.min(numBuffers, MAX_RUN)];
+        this.gather = new ByteBuffer[run.length];
+
+        int indexSize = 1;
+        while (indexSize < numBuffers * 2) {
+            indexSize <<= 1;
+        }
+        this.blockIndex = new Buffer[indexSize];
+        this.indexMask = indexSize - 1;
 
         for (int i = 0; i < numBuffers; i++) {
             pool[i] = new Buffer(bufferSize);
@@ -74,13 +218,8 @@ public class BufferPool {
      *            Absolute position of bytes to insert
      * @throws Exception
      */
-    public void insert(byte[] space, int size, int pos) throws Exception {
-        int blockNum = pos / bufferSize;
-        int relPos = pos - (blockNum * bufferSize);
-
-        Buffer buff = findBuffer(pos, blockNum);
-        buff.setIsDirty(true);
-        System.arraycopy(space, 0, buff.getData(), relPos, size);
+    public void insert(byte[] space, int size, long pos) throws Exception {
+        writeBytes(pos, space, 0, size);
     }
 
 
@@ -95,16 +234,246 @@ public class BufferPool {
      *            Absolute position of bytes requested
      * @throws Exception
      */
-    public void getBytes(byte[] space, int size, int pos) throws Exception {
-        int blockNum = pos / bufferSize;
-        int relPos = pos - (blockNum * bufferSize);
-        Buffer buff = findBuffer(pos, blockNum);
-        System.arraycopy(buff.getData(), relPos, space, 0, size);
+    public void getBytes(byte[] space, int size, long pos) throws Exception {
+        readBytes(pos, space, 0, size);
 // buff.getBytes(space, size, relPos);
 //        return space;
     }
 
 
+    /**
+     * Copies bytes out of the pool, they may span several blocks
+     * 
+     * @param pos
+     *            Absolute position of the first byte
+     * @param space
+     *            Array receiving the bytes
+     * @param off
+     *            Where the bytes go in space
+     * @param size
+     *            Number of bytes
+     * @throws Exception
+     */
+    public void readBytes(long pos, byte[] space, int off, int size)
+        throws Exception {
+        while (size > 0) {
+            long blockNum = pos / bufferSize;
+            int relPos = (int)(pos - blockNum * bufferSize);
+            int n = Math.min(size, bufferSize - relPos);
+            System.arraycopy(findBuffer(pos, blockNum).getData(), relPos,
+                space, off, n);
+            pos += n;
+            off += n;
+            size -= n;
+        }
+    }
+
+
+    /**
+     * Copies bytes into the pool, they may span several blocks
+     * 
+     * @param pos
+     *            Absolute position of the first byte
+     * @param space
+     *            Array holding the bytes
+     * @param off
+     *            Where the bytes start in space
+     * @param size
+     *            Number of bytes
+     * @throws Exception
+     */
+    public void writeBytes(long pos, byte[] space, int off, int size)
+        throws Exception {
+        while (size > 0) {
+            long blockNum = pos / bufferSize;
+            int relPos = (int)(pos - blockNum * bufferSize);
+            int n = Math.min(size, bufferSize - relPos);
+            Buffer buff = findBuffer(pos, blockNum);
+            buff.markDirty(relPos, relPos + n);
+            System.arraycopy(space, off, buff.getData(), relPos, n);
+            pos += n;
+            off += n;
+            size -= n;
+        }
+    }
+
+
+    /**
+     * Reads the key of a record straight out of its buffer
+     * 
+     * @param pos
+     *            Absolute position of the record
+     * @return short key value
+     * @throws Exception
+     */
+    public short readKey(long pos) throws Exception {
+        long blockNum = pos / bufferSize;
+        byte[] data = findBuffer(pos, blockNum).getData();
+        int off = (int)(pos - blockNum * bufferSize);
+        return (short)((data[off] << 8) | (data[off + 1] & 0xFF));
+    }
+
+
+    /**
+     * Reads the key of a record of any layout
+     * 
+     * @param pos
+     *            Absolute position of the record
+     * @param layout
+     *            Where the key sits in the record and how to read it
+     * @return the key, ordered as a long
+     * @throws Exception
+     */
+    public long readKey(long pos, RecordLayout layout) throws Exception {
+        long keyPos = pos + layout.getKeyOffset();
+        long blockNum = keyPos / bufferSize;
+        int off = (int)(keyPos - blockNum * bufferSize);
+        if (off + layout.getKeyWidth() <= bufferSize) {
+            return layout.keyAt(findBuffer(keyPos, blockNum).getData(), off);
+        }
+        readBytes(keyPos, keyTaxi, 0, layout.getKeyWidth());
+        return layout.keyAt(keyTaxi, 0);
+    }
+
+
+    /**
+     * Compares the keys of two records
+     * 
+     * @param posA
+     *            Absolute position of the first record
+     * @param posB
+     *            Absolute position of the second record
+     * @return negative, zero or positive as the first key is less than,
+     *         equal to or greater than the second
+     * @throws Exception
+     */
+    public int compareKeys(long posA, long posB) throws Exception {
+        short keyA = readKey(posA);
+        return keyA - readKey(posB);
+    }
+
+
+    /**
+     * Reads a whole record packed into an int, key in the high half
+     * 
+     * @param pos
+     *            Absolute position of the record
+     * @return the record
+     * @throws Exception
+     */
+    public int readRecord(long pos) throws Exception {
+        long blockNum = pos / bufferSize;
+        byte[] data = findBuffer(pos, blockNum).getData();
+        int off = (int)(pos - blockNum * bufferSize);
+        return (data[off] << 24) | ((data[off + 1] & 0xFF) << 16)
+            | ((data[off + 2] & 0xFF) << 8) | (data[off + 3] & 0xFF);
+    }
+
+
+    /**
+     * Writes a packed record into its buffer
+     * 
+     * @param pos
+     *            Absolute position of the record
+     * @param record
+     *            the record, as returned by readRecord
+     * @throws Exception
+     */
+    public void writeRecord(long pos, int record) throws Exception {
+        long blockNum = pos / bufferSize;
+        Buffer buff = findBuffer(pos, blockNum);
+        byte[] data = buff.getData();
+        int off = (int)(pos - blockNum * bufferSize);
+        data[off] = (byte)(record >>> 24);
+        data[off + 1] = (byte)(record >>> 16);
+        data[off + 2] = (byte)(record >>> 8);
+        data[off + 3] = (byte)record;
+        buff.markDirty(off, off + RECORD_SIZE);
+    }
+
+
+    /**
+     * Exchanges two records within the pool
+     * 
+     * @param posA
+     *            Absolute position of the first record
+     * @param posB
+     *            Absolute position of the second record
+     * @throws Exception
+     */
+    public void swapRecords(long posA, long posB) throws Exception {
+        if (posA == posB) {
+            return;
+        }
+        int recordA = readRecord(posA);
+        int recordB = readRecord(posB);
+        writeRecord(posB, recordA);
+        writeRecord(posA, recordB);
+    }
+
+
+    /**
+     * Copies a run of records out of the pool one block at a time
+     * 
+     * @param pos
+     *            Absolute position of the first record
+     * @param records
+     *            Array receiving the records packed as by readRecord
+     * @param count
+     *            Number of records
+     * @throws Exception
+     */
+    public void readRecords(long pos, int[] records, int count)
+        throws Exception {
+        int i = 0;
+        while (i < count) {
+            long blockNum = pos / bufferSize;
+            byte[] data = findBuffer(pos, blockNum).getData();
+            int off = (int)(pos - blockNum * bufferSize);
+            int n = Math.min(count - i, (bufferSize - off) / RECORD_SIZE);
+            for (int end = i + n; i < end; i++, off += RECORD_SIZE) {
+                records[i] = (data[off] << 24) | ((data[off + 1]
+                    & 0xFF) << 16) | ((data[off + 2] & 0xFF) << 8)
+                    | (data[off + 3] & 0xFF);
+            }
+            pos += n * RECORD_SIZE;
+        }
+    }
+
+
+    /**
+     * Copies a run of records into the pool one block at a time
+     * 
+     * @param pos
+     *            Absolute position of the first record
+     * @param records
+     *            Records packed as by readRecord
+     * @param count
+     *            Number of records
+     * @throws Exception
+     */
+    public void writeRecords(long pos, int[] records, int count)
+        throws Exception {
+        int i = 0;
+        while (i < count) {
+            long blockNum = pos / bufferSize;
+            Buffer buff = findBuffer(pos, blockNum);
+            byte[] data = buff.getData();
+            int off = (int)(pos - blockNum * bufferSize);
+            int n = Math.min(count - i, (bufferSize - off) / RECORD_SIZE);
+            buff.markDirty(off, off + n * RECORD_SIZE);
+            for (int end = i + n; i < end; i++, off += RECORD_SIZE) {
+                int record = records[i];
+                data[off] = (byte)(record >>> 24);
+                data[off + 1] = (byte)(record >>> 16);
+                data[off + 2] = (byte)(record >>> 8);
+                data[off + 3] = (byte)record;
+            }
+            pos += n * RECORD_SIZE;
+        }
+    }
+
+
     /**
      * Finds necessary buffer
      * 
@@ -115,57 +484,464 @@ public class BufferPool {
      * @return Buffer containing data, or LRU Buffer
      * @throws Exception
      */
-    public Buffer findBuffer(int pos, int blockNum) throws Exception {
-        Buffer buff = null;
-        int bufferIndex = numBuffers - 1;
-        // finding if a buffer exists
-        for (int i = 0; i < numBuffers; i++) {
-            if (pos >= pool[i].getPos() && pos < pool[i].getPos() + bufferSize
-                && pool[i].getPos() >= 0) {
-                buff = pool[i];
-                bufferIndex = i;
-                cacheHits[0]++;
-            }
+    public Buffer findBuffer(long pos, long blockNum) throws Exception {
+        Buffer buff = lookup(blockNum);
+        if (buff != null) {
+            stats.hit();
+            policy.recordHit(buff);
+            return buff;
         }
 
-        updateLRU(bufferIndex, blockNum * bufferSize);
-        if (buff == null) {
-            buff = pool[0];
-            buff.setPos(blockNum * bufferSize);
-            buff.setIsDirty(false);
-            raf.seek(buff.getPos());
-            raf.read(buff.getData());
-            diskReads[0]++;
+        long blockPos = blockNum * bufferSize;
+        if (loaded < numBuffers) {
+            buff = pool[loaded++];
+        }
+        else {
+            buff = policy.evict(blockPos);
+            evict(buff);
+        }
+        buff.setPos(blockPos);
+        buff.setIsDirty(false);
+        // A block taken back from the write-behind queue never left
+        // memory, so it counts once, as a hit
+        if (flusher != null && flusher.reclaim(blockPos, buff)) {
+            stats.hit();
+        }
+        else {
+            stats.miss();
+            if (prefetcher == null || !prefetcher.take(blockPos, buff)) {
+                long start = System.nanoTime();
+                int n = store.read(buff.getPos(), buff.getData());
+                stats.read(Math.max(n, 0), System.nanoTime() - start);
+            }
+        }
+        index(buff);
+        policy.recordLoad(buff);
+        if (prefetcher != null) {
+            detectStream(blockNum);
         }
         return buff;
     }
 
 
     /**
-     * Moves buffer from the end of the pool to the front
-     * Writes to RAF if is dirty
+     * Drops a buffer from the block index
+     * Writes to the block store if is dirty
      * 
-     * @param index
-     *            Buffer index
-     * @param pos
-     *            New position needed in the data file
+     * @param buff
+     *            Buffer being reused
      * @throws Exception
      */
-    private void updateLRU(int index, int pos) throws Exception {
-        Buffer buff = pool[index];
-        for (int i = index; i > 0; i--) {
-            pool[i] = pool[i - 1];
+    private void evict(Buffer buff) throws Exception {
+        if (buff.getPos() < 0) {
+            return;
+        }
+        stats.evict(buff.isDirty());
+        if (buff.isDirty()) {
+            if (flusher != null) {
+                flusher.writeLater(buff);
+            }
+            else if (coalesce > 0) {
+                writeWithNeighbours(buff);
+            }
+            else {
+                writeBack(buff);
+            }
+            buff.setIsDirty(false);
+        }
+        unindex(buff);
+        buff.setPos(-1);
+    }
+
+
+    /**
+     * Writes a buffer's bytes that fall inside the write window
+     * Also called from the write-behind thread
+     * 
+     * @param buff
+     *            Dirty buffer
+     * @throws IOException
+     */
+    void writeBack(Buffer buff) throws IOException {
+        long from = Math.max(buff.getPos() + writeFrom(buff), windowStart);
+        long to = Math.min(buff.getPos() + writeTo(buff), windowEnd);
+        if (from < to) {
+            long start = System.nanoTime();
+            store.write(from, buff.getData(), (int)(from - buff.getPos()),
+                (int)(to - from));
+            stats.write(1, to - from, System.nanoTime() - start);
+        }
+        else {
+            stats.write(1, 0, -1);
+        }
+    }
+
+
+    /**
+     * Writes a run of dirty buffers holding consecutive blocks with one
+     * gathering write, clamped to the write window
+     * 
+     * @param buffs
+     *            Buffers in file order
+     * @param count
+     *            Number of buffers in the run
+     * @throws IOException
+     */
+    private void writeRun(Buffer[] buffs, int count) throws IOException {
+        if (count == 1) {
+            writeBack(buffs[0]);
+            return;
+        }
+        long start = buffs[0].getPos();
+        long from = Math.max(start + writeFrom(buffs[0]), windowStart);
+        long to = Math.min(buffs[count - 1].getPos() + writeTo(buffs[count
+            - 1]), windowEnd);
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            long blockPos = buffs[i].getPos();
+            long lo = Math.max(blockPos, from);
+            long hi = Math.min(blockPos + bufferSize, to);
+            if (lo < hi) {
+                gather[n++] = ByteBuffer.wrap(buffs[i].getData(), (int)(lo
+                    - blockPos), (int)(hi - lo));
+            }
+        }
+        if (n > 0) {
+            long begin = System.nanoTime();
+            store.write(from, gather, n);
+            stats.write(count, to - from, System.nanoTime() - begin);
+        }
+        else {
+            stats.write(count, 0, -1);
+        }
+        Arrays.fill(gather, 0, n, null);
+    }
+
+
+    /**
+     * @param buff
+     *            Dirty buffer
+     * @return Relative position of the first byte written back, its
+     *         dirty extent's start when that extent is sparse
+     */
+    private int writeFrom(Buffer buff) {
+        return isSparse(buff) ? buff.getDirtyFrom() : 0;
+    }
+
+
+    /**
+     * @param buff
+     *            Dirty buffer
+     * @return Relative position past the last byte written back
+     */
+    private int writeTo(Buffer buff) {
+        return isSparse(buff) ? buff.getDirtyTo() : bufferSize;
+    }
+
+
+    /**
+     * @param buff
+     *            Dirty buffer
+     * @return True if only its dirty extent is written back, false if
+     *         partial writes are off or the extent is dense enough that
+     *         the whole block is written
+     */
+    private boolean isSparse(Buffer buff) {
+        return partialDensity > 0 && buff.getDirtyTo() - buff
+            .getDirtyFrom() <= partialDensity * bufferSize;
+    }
+
+
+    /**
+     * Writes back only the changed extent of a block from now on, unless
+     * it covers more than density of the block, where one full aligned
+     * block write is cheaper than a partial one
+     * 
+     * @param density
+     *            Fraction of a block, between 0 and 1, above which the
+     *            whole block is written
+     */
+    public void enablePartialWrites(double density) {
+        this.partialDensity = density;
+    }
+
+
+    /**
+     * Writes a dirty victim together with the dirty blocks resident on
+     * either side of it, which stay in the pool but are clean afterwards
+     * 
+     * @param victim
+     *            Dirty buffer being evicted
+     * @throws IOException
+     */
+    private void writeWithNeighbours(Buffer victim) throws IOException {
+        long blockNum = victim.getPos() / bufferSize;
+        int limit = Math.min(coalesce + 1, run.length);
+        long first = blockNum;
+        while (blockNum - first + 1 < limit) {
+            Buffer prev = lookup(first - 1);
+            if (prev == null || !prev.isDirty()) {
+                break;
+            }
+            first--;
+        }
+        long last = blockNum;
+        while (last - first + 1 < limit) {
+            Buffer next = lookup(last + 1);
+            if (next == null || !next.isDirty()) {
+                break;
+            }
+            last++;
+        }
+        int count = 0;
+        for (long b = first; b <= last; b++) {
+            run[count++] = b == blockNum ? victim : lookup(b);
+        }
+        writeRun(run, count);
+        for (int i = 0; i < count; i++) {
+            run[i].setIsDirty(false);
+            run[i] = null;
+        }
+    }
+
+
+    /**
+     * Writes up to n dirty neighbours of a dirty victim along with it
+     * Neighbours written early may be dirtied again, costing another
+     * write, in exchange for fewer and longer writes
+     * 
+     * @param n
+     *            Most neighbouring blocks written with a victim
+     */
+    public void enableCoalescing(int n) {
+        this.coalesce = n;
+    }
+
+
+    /**
+     * @return Number of write calls made to the block store, a gathered
+     *         run of blocks counts once
+     */
+    public long getWriteCalls() {
+        return stats.getWriteCalls();
+    }
+
+
+    /**
+     * @return The pool's counters
+     */
+    public PoolStats getStats() {
+        return stats;
+    }
+
+
+    /**
+     * Attributes later misses to a part of the sort
+     * 
+     * @param phase
+     *            Phase being entered
+     * @return Phase being left
+     */
+    public PoolStats.Phase setPhase(PoolStats.Phase phase) {
+        return stats.setPhase(phase);
+    }
+
+
+    /**
+     * Hands dirty evictions to a background thread from now on
+     * 
+     * @param depth
+     *            Number of evicted buffers that may wait to be written
+     */
+    public void enableWriteBehind(int depth) {
+        shareStore();
+        flusher = new WriteBehindFlusher(this, depth, bufferSize);
+    }
+
+
+    /**
+     * Reads ahead of sequential access from now on
+     * Once two misses in a row move one block up or down the file, the
+     * next depth blocks in that direction are read in the background
+     * 
+     * @param depth
+     *            Number of blocks read ahead of each stream
+     */
+    public void enablePrefetch(int depth) {
+        shareStore();
+        prefetchDepth = depth;
+        prefetcher = new Prefetcher(store, 2 * depth, bufferSize);
+        streamLast = new long[STREAMS];
+        streamDir = new int[STREAMS];
+        streamRun = new int[STREAMS];
+        streamAhead = new long[STREAMS];
+        Arrays.fill(streamLast, -2);
+    }
+
+
+    /**
+     * The store is read or written from a background thread afterwards,
+     * so a store that is not thread safe gets serialized
+     */
+    private void shareStore() {
+        if (!store.isThreadSafe()) {
+            store = new SynchronizedBlockStore(store);
+        }
+    }
+
+
+    /**
+     * Follows the missed block through the stream table and reads ahead
+     * of a stream that keeps moving in one direction
+     * 
+     * @param blockNum
+     *            Block that just missed
+     */
+    private void detectStream(long blockNum) {
+        int s = 0;
+        int dir = 0;
+        for (; s < STREAMS; s++) {
+            long step = blockNum - streamLast[s];
+            dir = step == 1 || step == -1 ? (int)step : 0;
+            if (dir != 0 && (streamDir[s] == 0
+                || streamDir[s] == dir)) {
+                break;
+            }
+        }
+        if (s == STREAMS) {
+            s = nextStream;
+            nextStream = (nextStream + 1) % STREAMS;
+            streamLast[s] = blockNum;
+            streamDir[s] = 0;
+            streamRun[s] = 1;
+            streamAhead[s] = blockNum;
+            return;
+        }
+        streamLast[s] = blockNum;
+        streamDir[s] = dir;
+        streamRun[s]++;
+        if (streamRun[s] < 2) {
+            return;
+        }
+        long lastBlock = (fileSize - 1) / bufferSize;
+        for (int i = 1; i <= prefetchDepth; i++) {
+            long target = blockNum + dir * i;
+            if (target < 0 || target > lastBlock) {
+                break;
+            }
+            if (dir * (target - streamAhead[s]) <= 0) {
+                continue;
+            }
+            streamAhead[s] = target;
+            long targetPos = target * bufferSize;
+            if (lookup(target) == null && (flusher == null || !flusher
+                .isPending(targetPos)) && prefetcher.request(targetPos)) {
+                stats.read(bufferSize, -1);
+            }
+        }
+    }
+
+
+    /**
+     * @return Number of dirty evictions written by the write-behind
+     *         thread
+     */
+    public long getWrittenBehind() {
+        return writtenBehind + (flusher == null ? 0 : flusher.getWritten());
+    }
+
+
+    /**
+     * @return Number of misses served by read-ahead
+     */
+    public long getPrefetchHits() {
+        return prefetcher == null ? 0 : prefetcher.getPrefetchHits();
+    }
+
+
+    /**
+     * @return Number of blocks read ahead but never used
+     */
+    public long getWastedPrefetches() {
+        return prefetcher == null ? 0 : prefetcher.getWastedPrefetches();
+    }
+
+
+    /**
+     * Restricts write-back to a byte range of the file, so pools over
+     * neighbouring ranges can share boundary blocks
+     * 
+     * @param start
+     *            First absolute position that may be written
+     * @param end
+     *            Absolute position one past the last that may be written
+     */
+    public void setWriteWindow(long start, long end) {
+        this.windowStart = start;
+        this.windowEnd = end;
+    }
+
+
+    /**
+     * @param blockNum
+     *            Block number
+     * @return Bucket of the block index holding the block
+     */
+    private int slot(long blockNum) {
+        return ((int)(blockNum ^ (blockNum >>> 32)) * 0x9E3779B9 >>> 16)
+            & indexMask;
+    }
+
+
+    /**
+     * Looks up the buffer holding a block
+     * 
+     * @param blockNum
+     *            Block number
+     * @return Resident buffer, or null if the block is not in the pool
+     */
+    private Buffer lookup(long blockNum) {
+        long blockPos = blockNum * bufferSize;
+        Buffer buff = blockIndex[slot(blockNum)];
+        while (buff != null && buff.getPos() != blockPos) {
+            buff = buff.getHashNext();
         }
+        return buff;
+    }
+
+
+    /**
+     * Adds a loaded buffer to the block index
+     * 
+     * @param buff
+     *            Buffer with its position set
+     */
+    private void index(Buffer buff) {
+        int i = slot(buff.getPos() / bufferSize);
+        buff.setHashNext(blockIndex[i]);
+        blockIndex[i] = buff;
+    }
+
 
-        pool[0] = buff;
-        if (buff != null && index == numBuffers - 1 && buff.getPos() != pos) {
-            if (buff.isDirty()) {
-                raf.seek(buff.getPos());
-                raf.write(buff.getData());
-                buff.setIsDirty(false);
-                diskWrites[0]++;
+    /**
+     * Removes a buffer from the block index
+     * 
+     * @param buff
+     *            Resident buffer
+     */
+    private void unindex(Buffer buff) {
+        int i = slot(buff.getPos() / bufferSize);
+        if (blockIndex[i] == buff) {
+            blockIndex[i] = buff.getHashNext();
+        }
+        else {
+            Buffer curr = blockIndex[i];
+            while (curr.getHashNext() != buff) {
+                curr = curr.getHashNext();
             }
+            curr.setHashNext(buff.getHashNext());
         }
+        buff.setHashNext(null);
     }
 
 
@@ -177,26 +953,79 @@ public class BufferPool {
      * @return array of bytes
      * @throws Exception
      */
-    public byte[] getPivot(int pivotIndex) throws Exception {
+    public byte[] getPivot(long pivotIndex) throws Exception {
         getBytes(taxi, 4, pivotIndex);
         return taxi;
     }
 
 
     /**
-     * Writes all dirty blocks back to the RAF
+     * Writes all dirty blocks back to the block store in file order,
+     * each run of consecutive blocks with one call
+     * Waits for the write-behind queue to drain first
+     * 
+     * @throws Exception
+     */
+    public void flushAll() throws Exception {
+        if (prefetcher != null) {
+            prefetcher.stop();
+        }
+        if (flusher != null) {
+            flusher.stop();
+            writtenBehind += flusher.getWritten();
+            flusher = null;
+        }
+        writeDirty();
+        store.close();
+    }
+
+
+    /**
+     * Writes all dirty blocks back like flushAll and makes them durable,
+     * but keeps them resident and the store open, for a checkpoint
+     * 
+     * @throws Exception
+     */
+    public void flush() throws Exception {
+        if (flusher != null) {
+            flusher.drain();
+        }
+        writeDirty();
+        store.force();
+    }
+
+
+    /**
+     * Writes the dirty blocks in file order, each run of consecutive
+     * blocks with one call, and marks them clean
      * 
      * @throws IOException
      */
-    public void flushAll() throws IOException {
+    private void writeDirty() throws IOException {
+        Buffer[] dirty = new Buffer[pool.length];
+        int count = 0;
         for (int i = 0; i < pool.length; i++) {
-            if (pool[i].isDirty() && pool[i] != null) {
-                raf.seek(pool[i].getPos());
-                raf.write(pool[i].getData());
-                diskWrites[0]++;
+            if (pool[i].isDirty() && pool[i].getPos() >= 0) {
+                dirty[count++] = pool[i];
+            }
+        }
+        Arrays.sort(dirty, 0, count, (a, b) -> Long.compare(a.getPos(), b
+            .getPos()));
+        int start = 0;
+        while (start < count) {
+            int end = start + 1;
+            while (end < count && end - start < run.length && dirty[end]
+                .getPos() == dirty[end - 1].getPos() + bufferSize) {
+                end++;
+            }
+            System.arraycopy(dirty, start, run, 0, end - start);
+            writeRun(run, end - start);
+            for (int i = start; i < end; i++) {
+                dirty[i].setIsDirty(false);
             }
+            start = end;
         }
-        raf.close();
+        Arrays.fill(run, null);
     }
 
 
@@ -215,10 +1044,119 @@ public class BufferPool {
 
 
     /**
-     * @return Absolute size of the data set
-     * @throws IOException
+     * @param pos
+     *            Absolute position within the data file
+     * @return True if the block holding pos is in the pool
+     */
+    public boolean isResident(long pos) {
+        return lookup(pos / bufferSize) != null;
+    }
+
+
+    /**
+     * @return Number of bytes the buffers hold together
+     */
+    public long getCapacity() {
+        return (long)numBuffers * bufferSize;
+    }
+
+
+    /**
+     * @return Size of each data block/buffer
+     */
+    public int getBlockSize() {
+        return bufferSize;
+    }
+
+
+    /**
+     * @return Absolute size of the data set, cached when the pool opens
      */
-    public int getSize() throws IOException {
-        return (int)raf.length();
+    public long getSize() {
+        return fileSize;
+    }
+
+
+    /**
+     * @return Name of the replacement policy
+     */
+    public String getPolicyName() {
+        return policy.getName();
+    }
+
+
+    /**
+     * Decides which resident buffer a miss reuses once every buffer
+     * holds a block
+     */
+    public interface ReplacementPolicy {
+
+        /**
+         * Called when a request finds its block resident
+         * 
+         * @param buff
+         *            Buffer holding the block
+         */
+        void recordHit(Buffer buff);
+
+
+        /**
+         * Called after a block is read into a buffer
+         * 
+         * @param buff
+         *            Buffer now holding the block at buff.getPos()
+         */
+        void recordLoad(Buffer buff);
+
+
+        /**
+         * Picks a victim and stops tracking it, the pool writes it back
+         * if it is dirty
+         * 
+         * @param pos
+         *            Absolute position of the block about to be loaded
+         * @return Buffer to reuse
+         */
+        Buffer evict(long pos);
+
+
+        /**
+         * @return Name reported in the metrics
+         */
+        String getName();
+
+
+        /**
+         * Creates a policy by name
+         * 
+         * @param name
+         *            One of "lru", "clock", "2q", "arc" or "lru-k",
+         *            where k is the number of references tracked
+         * @param numBuffers
+         *            Number of buffers within the pool
+         * @return The policy
+         */
+        static ReplacementPolicy forName(String name, int numBuffers) {
+            String lower = name.toLowerCase();
+            switch (lower) {
+                case "lru":
+                    return new LruPolicy();
+                case "clock":
+                    return new ClockPolicy(numBuffers);
+                case "2q":
+                    return new TwoQueuePolicy(numBuffers);
+                case "arc":
+                    return new ArcPolicy(numBuffers);
+                default:
+                    if (lower.startsWith("lru-")) {
+                        String k = lower.substring(4);
+                        return new LruKPolicy(numBuffers, k.equals("k")
+                            ? 2
+                            : Integer.parseInt(k));
+                    }
+                    throw new IllegalArgumentException(
+                        "Unknown replacement policy: " + name);
+            }
+        }
     }
 }
@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-02-2023
+ * 
+ * @since 11-02-2023
+ * 
+ *        BlockStore using positional FileChannel reads and writes,
+ *        no seek is needed between requests
+ * 
+ */
+public class ChannelBlockStore implements BlockStore {
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    /**
+     * Constructor
+     * 
+     * @param filePath
+     *            Data filename
+     * @throws IOException
+     */
+    public ChannelBlockStore(String filePath) throws IOException {
+        this.raf = new RandomAccessFile(filePath, "rw");
+        this.channel = raf.getChannel();
+    }
+
+
+    @Override
+    public int read(long pos, byte[] data, int off, int len)
+        throws IOException {
+        ByteBuffer dst = ByteBuffer.wrap(data, off, len);
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, pos + dst.position() - off);
+            if (n < 0) {
+                break;
+            }
+        }
+        int done = dst.position() - off;
+        return done == 0 && len > 0 ? -1 : done;
+    }
+
+
+    @Override
+    public void write(long pos, byte[] data, int off, int len)
+        throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(data, off, len);
+        while (src.hasRemaining()) {
+            channel.write(src, pos + src.position() - off);
+        }
+    }
+
+
+    /**
+     * One gathering write for the whole run
+     * Synchronized as it moves the channel position, which positional
+     * reads and writes ignore
+     */
+    @Override
+    public synchronized void write(long pos, ByteBuffer[] srcs, int count)
+        throws IOException {
+        long remaining = 0;
+        for (int i = 0; i < count; i++) {
+            remaining += srcs[i].remaining();
+        }
+        channel.position(pos);
+        while (remaining > 0) {
+            remaining -= channel.write(srcs, 0, count);
+        }
+    }
+
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+
+    @Override
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+
+    @Override
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        raf.close();
+    }
+}
@@ -1,8 +1,17 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
 
 /**
  * CheckFile: Check to see if a file is sorted. This assumes that each record is
  * a pair of short ints with the first short being the key value
+ * Large files are better checked with hashFile before sorting and the
+ * three argument checkFile after: both memory-map the file in chunks and
+ * scan them in parallel, and the multiset hash of the records catches a
+ * sort that drops or duplicates records as well as one that misorders them
  *
  * @author CS3114 Instructor and TAs
  * @version 10/18/2014
@@ -10,6 +19,9 @@ import java.io.*;
 
 public class CheckFile
 {
+    private static final int CHUNK_BYTES = 64 << 20; // Mapped per task
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
     /**
      * This is an empty constructor for a CheckFile object.
      */
@@ -38,7 +50,7 @@ public class CheckFile
         // Prime with the first record
         short key2 = in.readShort();
         in.readShort();
-        int reccnt = 0;
+        long reccnt = 0;
         try
         {
             while (true)
@@ -60,4 +72,276 @@ public class CheckFile
         in.close();
         return !isError;
     }
+
+
+    /**
+     * This method checks a file of records with any layout to see if it
+     * is properly sorted.
+     *
+     * @param filename
+     *            a string containing the name of the file to check
+     * @param layout
+     *            size of the records and where their key sits
+     * @return true if the file is sorted, false otherwise
+     * @throws Exception
+     *             either an IOException or a FileNotFoundException
+     */
+    public boolean checkFile(String filename, RecordLayout layout)
+        throws Exception
+    {
+        boolean isError = false;
+        byte[] record = new byte[layout.getRecordSize()];
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new FileInputStream(
+                filename)));
+        long prev = 0;
+        long reccnt = 0;
+        try
+        {
+            while (true)
+            {
+                in.readFully(record);
+                long key = layout.readKey(record, 0);
+                if (reccnt > 0 && prev > key)
+                {
+                    isError = true;
+                }
+                prev = key;
+                reccnt++;
+            }
+        }
+        catch (EOFException e)
+        {
+            System.out.println(reccnt + " records processed");
+        }
+        in.close();
+        return !isError;
+    }
+
+
+    /**
+     * This method computes an order independent hash of the records in a
+     * file. Any two files holding the same records, counted with their
+     * duplicates, have the same hash whatever their order.
+     *
+     * @param filename
+     *            a string containing the name of the file to hash
+     * @param layout
+     *            size of the records and where their key sits
+     * @return the hash, to hand to checkFile once the file is sorted
+     * @throws IOException
+     *             if the file cannot be mapped
+     */
+    public long hashFile(String filename, RecordLayout layout)
+        throws IOException
+    {
+        long hash = 0;
+        for (Chunk chunk : scan(filename, layout))
+        {
+            hash += chunk.hash;
+        }
+        return hash;
+    }
+
+
+    /**
+     * This method checks a file to see if it is properly sorted and still
+     * holds the records it held before sorting. Chunks are checked in
+     * parallel, then the last key of each chunk is compared to the first
+     * key of the next.
+     *
+     * @param filename
+     *            a string containing the name of the file to check
+     * @param layout
+     *            size of the records and where their key sits
+     * @param expectedHash
+     *            hashFile of the file before it was sorted
+     * @return true if the file is sorted and holds the same records,
+     *         false otherwise
+     * @throws IOException
+     *             if the file cannot be mapped
+     */
+    public boolean checkFile(
+        String filename,
+        RecordLayout layout,
+        long expectedHash)
+        throws IOException
+    {
+        Chunk[] chunks = scan(filename, layout);
+        boolean sorted = true;
+        long hash = 0;
+        long reccnt = 0;
+        for (int i = 0; i < chunks.length; i++)
+        {
+            sorted &= chunks[i].sorted;
+            if (i > 0 && chunks[i - 1].last > chunks[i].first)
+            {
+                sorted = false;
+            }
+            hash += chunks[i].hash;
+            reccnt += chunks[i].records;
+        }
+        System.out.println(reccnt + " records processed");
+        return sorted && hash == expectedHash;
+    }
+
+
+    /**
+     * Maps a file in chunks of whole records and scans them in parallel
+     *
+     * @param filename
+     *            a string containing the name of the file
+     * @param layout
+     *            size of the records and where their key sits
+     * @return one summary per chunk, in file order
+     * @throws IOException
+     *             if the file cannot be mapped
+     */
+    private Chunk[] scan(String filename, RecordLayout layout)
+        throws IOException
+    {
+        int recordSize = layout.getRecordSize();
+        long chunkBytes = CHUNK_BYTES / recordSize * recordSize;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename),
+            StandardOpenOption.READ))
+        {
+            long size = channel.size() / recordSize * recordSize;
+            int count = (int)((size + chunkBytes - 1) / chunkBytes);
+            return IntStream.range(0, count).parallel().mapToObj(c ->
+            {
+                long pos = c * chunkBytes;
+                try
+                {
+                    return new Chunk(channel.map(
+                        FileChannel.MapMode.READ_ONLY, pos, Math.min(
+                            chunkBytes, size - pos)), layout);
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }).toArray(Chunk[]::new);
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+
+    /**
+     * Spreads the bits of a value over a long
+     *
+     * @param z
+     *            the value
+     * @return the mixed value
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+
+    /**
+     * Summary of one mapped chunk: its first and last key, whether it is
+     * sorted, and the sum of its record hashes
+     */
+    private static class Chunk
+    {
+        private long first;
+        private long last;
+        private boolean sorted = true;
+        private long hash;
+        private long records;
+
+        /**
+         * Scans a chunk
+         *
+         * @param buf
+         *            the chunk, a whole number of records
+         * @param layout
+         *            size of the records and where their key sits
+         */
+        Chunk(ByteBuffer buf, RecordLayout layout)
+        {
+            records = buf.remaining() / layout.getRecordSize();
+            if (layout.isDefault())
+            {
+                scanPacked(buf);
+            }
+            else
+            {
+                scanRecords(buf, layout);
+            }
+        }
+
+
+        /**
+         * Scans 4 byte records, each read as one int
+         *
+         * @param buf
+         *            the chunk
+         */
+        private void scanPacked(ByteBuffer buf)
+        {
+            long prev = Long.MIN_VALUE;
+            for (long i = 0; i < records; i++)
+            {
+                int record = buf.getInt();
+                long key = (short)(record >>> 16);
+                if (prev > key)
+                {
+                    sorted = false;
+                }
+                prev = key;
+                hash += mix(SEED ^ (record & 0xFFFFFFFFL));
+            }
+            first = records > 0 ? (short)(buf.getInt(0) >>> 16) : 0;
+            last = prev;
+        }
+
+
+        /**
+         * Scans records of any layout, hashed 8 bytes at a time so that
+         * a 4 byte record hashes as scanPacked does
+         *
+         * @param buf
+         *            the chunk
+         * @param layout
+         *            size of the records and where their key sits
+         */
+        private void scanRecords(ByteBuffer buf, RecordLayout layout)
+        {
+            byte[] record = new byte[layout.getRecordSize()];
+            long prev = Long.MIN_VALUE;
+            for (long i = 0; i < records; i++)
+            {
+                buf.get(record);
+                long key = layout.readKey(record, 0);
+                if (i == 0)
+                {
+                    first = key;
+                }
+                else if (prev > key)
+                {
+                    sorted = false;
+                }
+                prev = key;
+                long h = SEED;
+                for (int g = 0; g < record.length; g += 8)
+                {
+                    long word = 0;
+                    for (int b = g; b < Math.min(g + 8, record.length); b++)
+                    {
+                        word = (word << 8) | (record[b] & 0xFF);
+                    }
+                    h = g == 0 ? h ^ word : mix(h) ^ word;
+                }
+                hash += mix(h);
+            }
+            last = prev;
+        }
+    }
 }
@@ -0,0 +1,64 @@
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-10-2023
+ * 
+ * @since 11-10-2023
+ * 
+ *        CLOCK (second chance) replacement
+ *        A hit only sets a reference bit, the hand sweeps the buffers
+ *        clearing bits until it finds one that was not referenced
+ * 
+ */
+public class ClockPolicy implements BufferPool.ReplacementPolicy {
+    private Buffer[] ring;
+    private boolean[] referenced;
+    private int loaded;
+    private int hand;
+
+    /**
+     * Constructor
+     * 
+     * @param numBuffers
+     *            Number of buffers within the pool
+     */
+    public ClockPolicy(int numBuffers) {
+        this.ring = new Buffer[numBuffers];
+        this.referenced = new boolean[numBuffers];
+    }
+
+
+    @Override
+    public void recordHit(Buffer buff) {
+        referenced[buff.getTag()] = true;
+    }
+
+
+    @Override
+    public void recordLoad(Buffer buff) {
+        if (buff.getTag() < 0) {
+            // A victim keeps its slot, only fresh buffers need one
+            buff.setTag(loaded);
+            ring[loaded++] = buff;
+        }
+        referenced[buff.getTag()] = true;
+    }
+
+
+    @Override
+    public Buffer evict(long pos) {
+        while (referenced[hand]) {
+            referenced[hand] = false;
+            hand = (hand + 1) % loaded;
+        }
+        Buffer victim = ring[hand];
+        hand = (hand + 1) % loaded;
+        return victim;
+    }
+
+
+    @Override
+    public String getName() {
+        return "CLOCK";
+    }
+}
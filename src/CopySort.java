@@ -0,0 +1,715 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-25-2023
+ * 
+ * @since 11-25-2023
+ * 
+ *        Out of place sort, the input file is only read
+ *        Three stages run at once: a reader thread filling buffers from
+ *        disk, the sort stage on the calling thread, and a writer thread
+ *        draining sorted buffers to disk
+ *        The sort stage first sorts runs a quarter of the budget long,
+ *        the last quarter unpacking the run being sorted, with one run
+ *        being read, one sorted and one written, then merges them
+ *        with every run double buffered and two output buffers, so reads,
+ *        sorting and writes overlap in both phases
+ *        Each stage counts the time it spends busy and waiting
+ * 
+ */
+public class CopySort {
+    private static final int REC = BufferPool.RECORD_SIZE;
+
+    /** Most runs merged at once */
+    private static final int MAX_FAN_IN = 64;
+
+    /** Buffers in flight while runs are formed: read, sort, write */
+    private static final int RUN_SLOTS = 3;
+
+    /** Largest buffer, the biggest byte[] of whole records */
+    private static final int MAX_SLOT_BYTES = (Integer.MAX_VALUE - 8) / REC
+        * REC;
+
+    private String inPath;
+    private String outPath;
+    private int numBuffers;
+    private int blockSize;
+    private PoolStats stats;
+
+    private Stage reader = new Stage();
+    private Stage sorter = new Stage();
+    private Stage writer = new Stage();
+
+    private BlockingQueue<Slot> reads = new LinkedBlockingQueue<Slot>();
+    private BlockingQueue<Slot> writes = new LinkedBlockingQueue<Slot>();
+    private volatile IOException failure;
+
+    /**
+     * Constructor
+     * 
+     * @param inPath
+     *            File to sort, left as it is
+     * @param outPath
+     *            File receiving the sorted records
+     * @param numBuffers
+     *            Memory budget in blocks, at least six are used
+     * @param blockSize
+     *            Size of each block
+     * @param stats
+     *            Counts the blocks read and written
+     */
+    public CopySort(
+        String inPath,
+        String outPath,
+        int numBuffers,
+        int blockSize,
+        PoolStats stats) {
+        this.inPath = inPath;
+        this.outPath = outPath;
+        this.numBuffers = Math.max(2 * RUN_SLOTS, numBuffers);
+        this.blockSize = blockSize;
+        this.stats = stats;
+    }
+
+
+    /**
+     * Sorts the input into the output
+     * Merge passes alternate between the output and a run file, the run
+     * generation pass picks its target so the last pass lands in the
+     * output
+     * 
+     * @throws Exception
+     */
+    public void sort() throws Exception {
+        Path in = Paths.get(inPath);
+        Path out = Paths.get(outPath);
+        if (Files.exists(out) && Files.isSameFile(in, out)) {
+            throw new IllegalArgumentException("Output must differ from the"
+                + " input: " + outPath);
+        }
+        Path runPath = Paths.get(outPath + ".runs");
+        int fanIn = Math.min(MAX_FAN_IN, (numBuffers - 2) / 2);
+
+        Thread readThread = new Thread(() -> serve(reads, true), "reader");
+        Thread writeThread = new Thread(() -> serve(writes, false),
+            "writer");
+        readThread.start();
+        writeThread.start();
+        FileChannel source = FileChannel.open(in, StandardOpenOption.READ);
+        FileChannel target = FileChannel.open(out, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        FileChannel runs = null;
+        try {
+            long length = source.size();
+            long size = length - length % REC;
+            int runBytes = runSize(size);
+            int inputBytes = inputSize(size, fanIn);
+            int passes = 0;
+            for (long count = (size + runBytes - 1) / runBytes; count > 1;
+                count = (count + fanIn - 1) / fanIn) {
+                passes++;
+            }
+            if (passes > 0) {
+                runs = FileChannel.open(runPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            }
+
+            FileChannel dst = passes % 2 == 0 ? target : runs;
+            generateRuns(source, dst, size, runBytes);
+            for (long runLen = runBytes; runLen < size; runLen *= fanIn) {
+                FileChannel src = dst;
+                dst = src == target ? runs : target;
+                for (long start = 0; start < size; start += runLen * fanIn) {
+                    merge(src, dst, start, Math.min(start + runLen * fanIn,
+                        size), runLen, inputBytes);
+                }
+            }
+            if (length > size) {
+                copyTail(source, target, size, length);
+            }
+        }
+        finally {
+            reads.put(Slot.END);
+            writes.put(Slot.END);
+            readThread.join();
+            writeThread.join();
+            source.close();
+            target.close();
+            if (runs != null) {
+                runs.close();
+                Files.deleteIfExists(runPath);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+
+    /**
+     * @param size
+     *            Number of bytes holding records
+     * @return Bytes in a run, so the run slots and the int[] unpacking
+     *         one of them together fill the budget, and no more than the
+     *         file holds
+     */
+    private int runSize(long size) {
+        long share = (long)numBuffers * blockSize / (RUN_SLOTS + 1) / REC
+            * REC;
+        return (int)Math.max(REC, Math.min(Math.min(share, size),
+            MAX_SLOT_BYTES));
+    }
+
+
+    /**
+     * @param size
+     *            Number of bytes holding records
+     * @param fanIn
+     *            Runs merged at once
+     * @return Bytes in a merge input buffer, each run being double
+     *         buffered beside two output blocks, and no more blocks
+     *         than the file holds
+     */
+    private int inputSize(long size, int fanIn) {
+        long share = (long)(numBuffers - 2) / (2 * fanIn) * blockSize;
+        long whole = Math.max(1, (size + blockSize - 1) / blockSize)
+            * blockSize;
+        return (int)Math.min(Math.min(share, whole), MAX_SLOT_BYTES
+            / blockSize * blockSize);
+    }
+
+
+    /**
+     * Sorts the input one run at a time, reading the next run and
+     * writing the last while sorting this one
+     * 
+     * @param src
+     *            Input
+     * @param dst
+     *            File receiving the sorted runs
+     * @param size
+     *            Number of bytes holding records
+     * @param runBytes
+     *            Size of a run
+     * @throws Exception
+     */
+    private void generateRuns(
+        FileChannel src,
+        FileChannel dst,
+        long size,
+        int runBytes)
+        throws Exception {
+        long start = System.nanoTime();
+        long idle = sorter.idle;
+        BlockingQueue<Slot> filled = new ArrayBlockingQueue<Slot>(RUN_SLOTS);
+        BlockingQueue<Slot> free = new ArrayBlockingQueue<Slot>(RUN_SLOTS);
+        for (int i = 0; i < RUN_SLOTS; i++) {
+            free.add(new Slot(runBytes));
+        }
+        int[] records = new int[runBytes / REC];
+        long next = 0;
+        int pending = 0;
+        while (true) {
+            Slot slot;
+            while (next < size && (slot = free.poll()) != null) {
+                next = requestRead(slot, src, next, size, filled);
+                pending++;
+            }
+            if (pending == 0) {
+                if (next >= size) {
+                    break;
+                }
+                next = requestRead(take(free), src, next, size, filled);
+                pending++;
+            }
+            slot = take(filled);
+            pending--;
+            MemorySort.sortRecords(slot.data, slot.len, records);
+            slot.channel = dst;
+            slot.done = free;
+            writes.put(slot);
+        }
+        // Wait for the last writes, the runs are read back next
+        for (int i = 0; i < RUN_SLOTS; i++) {
+            take(free);
+        }
+        sorter.busy += System.nanoTime() - start - (sorter.idle - idle);
+    }
+
+
+    /**
+     * Merges the sorted runs of one group into a single run
+     * Each run has two input buffers, one being merged while the reader
+     * fills the other, and the output alternates between two buffers
+     * 
+     * @param src
+     *            File holding the runs
+     * @param dst
+     *            File receiving the merged run
+     * @param start
+     *            Position of the group's first run
+     * @param end
+     *            Position one past the group's last run
+     * @param runLen
+     *            Length of every run except possibly the last
+     * @param inputBytes
+     *            Size of each input buffer
+     * @throws Exception
+     */
+    private void merge(
+        FileChannel src,
+        FileChannel dst,
+        long start,
+        long end,
+        long runLen,
+        int inputBytes)
+        throws Exception {
+        long began = System.nanoTime();
+        long idle = sorter.idle;
+        int runCount = (int)((end - start + runLen - 1) / runLen);
+        long[] runNext = new long[runCount];
+        long[] runEnd = new long[runCount];
+        int[] pending = new int[runCount];
+        Slot[] current = new Slot[runCount];
+        int[] inputPos = new int[runCount];
+        List<BlockingQueue<Slot>> filled = new ArrayList<>(runCount);
+        int[] heapRecord = new int[runCount];
+        int[] heapRun = new int[runCount];
+        int heapSize = 0;
+
+        for (int run = 0; run < runCount; run++) {
+            runNext[run] = start + run * runLen;
+            runEnd[run] = Math.min(runNext[run] + runLen, end);
+            filled.add(new ArrayBlockingQueue<Slot>(2));
+            for (int i = 0; i < 2 && runNext[run] < runEnd[run]; i++) {
+                runNext[run] = requestRead(new Slot(inputBytes), src,
+                    runNext[run], runEnd[run], filled.get(run));
+                pending[run]++;
+            }
+        }
+        for (int run = 0; run < runCount; run++) {
+            current[run] = take(filled.get(run));
+            pending[run]--;
+            heapSize = push(heapRecord, heapRun, heapSize, record(
+                current[run], 0), run);
+            inputPos[run] = REC;
+        }
+
+        BlockingQueue<Slot> free = new ArrayBlockingQueue<Slot>(2);
+        free.add(new Slot(blockSize));
+        free.add(new Slot(blockSize));
+        Slot output = take(free);
+        long outPos = start;
+        while (heapSize > 0) {
+            int record = heapRecord[0];
+            int top = heapRun[0];
+            byte[] out = output.data;
+            out[output.len] = (byte)(record >>> 24);
+            out[output.len + 1] = (byte)(record >>> 16);
+            out[output.len + 2] = (byte)(record >>> 8);
+            out[output.len + 3] = (byte)record;
+            output.len += REC;
+            if (output.len == out.length) {
+                outPos = requestWrite(output, dst, outPos, free);
+                output = take(free);
+            }
+
+            if (inputPos[top] == current[top].len) {
+                Slot used = current[top];
+                current[top] = null;
+                if (runNext[top] < runEnd[top]) {
+                    runNext[top] = requestRead(used, src, runNext[top],
+                        runEnd[top], filled.get(top));
+                    pending[top]++;
+                }
+                if (pending[top] > 0) {
+                    current[top] = take(filled.get(top));
+                    pending[top]--;
+                    inputPos[top] = 0;
+                }
+            }
+            if (current[top] == null) {
+                heapSize--;
+                heapRecord[0] = heapRecord[heapSize];
+                heapRun[0] = heapRun[heapSize];
+            }
+            else {
+                heapRecord[0] = record(current[top], inputPos[top]);
+                inputPos[top] += REC;
+            }
+            siftDown(heapRecord, heapRun, heapSize);
+        }
+        if (output.len > 0) {
+            requestWrite(output, dst, outPos, free);
+        }
+        else {
+            free.add(output);
+        }
+        take(free);
+        take(free);
+        sorter.busy += System.nanoTime() - began - (sorter.idle - idle);
+    }
+
+
+    /**
+     * Copies the bytes after the last whole record through unchanged,
+     * as the engines sorting in place leave them
+     * 
+     * @param src
+     *            Input
+     * @param dst
+     *            Output
+     * @param size
+     *            Number of bytes holding records
+     * @param length
+     *            Length of the input
+     * @throws Exception
+     */
+    private void copyTail(
+        FileChannel src,
+        FileChannel dst,
+        long size,
+        long length)
+        throws Exception {
+        BlockingQueue<Slot> done = new ArrayBlockingQueue<Slot>(1);
+        requestRead(new Slot((int)(length - size)), src, size, length, done);
+        requestWrite(take(done), dst, size, done);
+        take(done);
+    }
+
+
+    /**
+     * Queues a read of the next stretch of a file
+     * 
+     * @param slot
+     *            Buffer to fill
+     * @param channel
+     *            File to read
+     * @param pos
+     *            Position of the stretch
+     * @param end
+     *            Position one past the last byte wanted
+     * @param done
+     *            Queue the filled buffer is handed to
+     * @return Position after the stretch
+     * @throws InterruptedException
+     */
+    private long requestRead(
+        Slot slot,
+        FileChannel channel,
+        long pos,
+        long end,
+        BlockingQueue<Slot> done)
+        throws InterruptedException {
+        slot.channel = channel;
+        slot.pos = pos;
+        slot.len = (int)Math.min(slot.data.length, end - pos);
+        slot.done = done;
+        long next = pos + slot.len;
+        reads.put(slot);
+        return next;
+    }
+
+
+    /**
+     * Queues a write of a buffer
+     * 
+     * @param slot
+     *            Buffer to write
+     * @param channel
+     *            File to write
+     * @param pos
+     *            Position of the buffer's first byte
+     * @param done
+     *            Queue the emptied buffer is handed back to
+     * @return Position after the buffer
+     * @throws InterruptedException
+     */
+    private long requestWrite(
+        Slot slot,
+        FileChannel channel,
+        long pos,
+        BlockingQueue<Slot> done)
+        throws InterruptedException {
+        slot.channel = channel;
+        slot.pos = pos;
+        slot.done = done;
+        long next = pos + slot.len;
+        writes.put(slot);
+        return next;
+    }
+
+
+    /**
+     * Waits for a buffer, counting the wait as the sort stage's idle time
+     * 
+     * @param queue
+     *            Queue to take from
+     * @return the buffer
+     * @throws Exception
+     *             the reader's or writer's failure, if any
+     */
+    private Slot take(BlockingQueue<Slot> queue) throws Exception {
+        long start = System.nanoTime();
+        Slot slot = queue.take();
+        sorter.idle += System.nanoTime() - start;
+        if (failure != null) {
+            throw failure;
+        }
+        return slot;
+    }
+
+
+    /**
+     * Body of the reader and writer threads: runs the queued requests
+     * until the end marker, handing each buffer on when done
+     * After a failure the buffers are still handed on, so the sort stage
+     * wakes up and sees it
+     * 
+     * @param requests
+     *            Queue of reads or of writes
+     * @param read
+     *            True for the reader
+     */
+    private void serve(BlockingQueue<Slot> requests, boolean read) {
+        Stage stage = read ? reader : writer;
+        while (true) {
+            long start = System.nanoTime();
+            Slot slot;
+            try {
+                slot = requests.take();
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            long begin = System.nanoTime();
+            stage.idle += begin - start;
+            if (slot == Slot.END) {
+                return;
+            }
+            try {
+                if (failure == null) {
+                    transfer(slot, read);
+                    long nanos = System.nanoTime() - begin;
+                    int blocks = (slot.len + blockSize - 1) / blockSize;
+                    if (read) {
+                        stats.read(blocks, slot.len, nanos);
+                    }
+                    else {
+                        stats.write(blocks, slot.len, nanos);
+                        slot.len = 0;
+                    }
+                }
+            }
+            catch (IOException e) {
+                failure = e;
+            }
+            stage.busy += System.nanoTime() - begin;
+            slot.done.add(slot);
+        }
+    }
+
+
+    /**
+     * Moves a buffer to or from its file
+     * 
+     * @param slot
+     *            Buffer and where it belongs
+     * @param read
+     *            True to fill the buffer
+     * @throws IOException
+     */
+    private static void transfer(Slot slot, boolean read) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(slot.data, 0, slot.len);
+        long pos = slot.pos;
+        while (buf.hasRemaining()) {
+            int n = read ? slot.channel.read(buf, pos) : slot.channel.write(
+                buf, pos);
+            if (n < 0) {
+                throw new IOException("File ended at " + pos);
+            }
+            pos += n;
+        }
+    }
+
+
+    /**
+     * @param slot
+     *            Filled buffer
+     * @param off
+     *            Position of a record in it
+     * @return the packed record
+     */
+    private static int record(Slot slot, int off) {
+        byte[] in = slot.data;
+        return (in[off] << 24) | ((in[off + 1] & 0xFF) << 16) | ((in[off + 2]
+            & 0xFF) << 8) | (in[off + 3] & 0xFF);
+    }
+
+
+    /**
+     * Adds a run's current record to the heap
+     * 
+     * @param heapRecord
+     *            Packed records
+     * @param heapRun
+     *            Their runs
+     * @param heapSize
+     *            Entries in the heap
+     * @param record
+     *            Packed record
+     * @param run
+     *            Run slot
+     * @return the new heap size
+     */
+    private static int push(
+        int[] heapRecord,
+        int[] heapRun,
+        int heapSize,
+        int record,
+        int run) {
+        int i = heapSize;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heapRecord[parent] <= record) {
+                break;
+            }
+            heapRecord[i] = heapRecord[parent];
+            heapRun[i] = heapRun[parent];
+            i = parent;
+        }
+        heapRecord[i] = record;
+        heapRun[i] = run;
+        return heapSize + 1;
+    }
+
+
+    /**
+     * Restores the heap after the top entry changed
+     * 
+     * @param heapRecord
+     *            Packed records
+     * @param heapRun
+     *            Their runs
+     * @param heapSize
+     *            Entries in the heap
+     */
+    private static void siftDown(
+        int[] heapRecord,
+        int[] heapRun,
+        int heapSize) {
+        if (heapSize == 0) {
+            return;
+        }
+        int record = heapRecord[0];
+        int run = heapRun[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize
+                && heapRecord[child + 1] < heapRecord[child]) {
+                child++;
+            }
+            if (record <= heapRecord[child]) {
+                break;
+            }
+            heapRecord[i] = heapRecord[child];
+            heapRun[i] = heapRun[child];
+            i = child;
+        }
+        heapRecord[i] = record;
+        heapRun[i] = run;
+    }
+
+
+    /**
+     * @return Time the reader spent reading and waiting for requests
+     */
+    public Stage getReader() {
+        return reader;
+    }
+
+
+    /**
+     * @return Time the sort stage spent sorting and merging, and waiting
+     *         for the reader or writer
+     */
+    public Stage getSorter() {
+        return sorter;
+    }
+
+
+    /**
+     * @return Time the writer spent writing and waiting for requests
+     */
+    public Stage getWriter() {
+        return writer;
+    }
+
+
+    /**
+     * Busy and idle time of one pipeline stage
+     * Each stage only updates its own, and they are read once the
+     * threads have been joined
+     */
+    public static class Stage {
+        private long busy;
+        private long idle;
+
+        /**
+         * @return Nanoseconds spent working
+         */
+        public long getBusy() {
+            return busy;
+        }
+
+
+        /**
+         * @return Nanoseconds spent waiting on another stage
+         */
+        public long getIdle() {
+            return idle;
+        }
+    }
+
+
+    /**
+     * A buffer passed between the stages with the request it carries
+     */
+    private static class Slot {
+        /** Tells the reader or writer thread to stop */
+        private static final Slot END = new Slot(0);
+
+        private byte[] data;
+        private int len;
+        private FileChannel channel;
+        private long pos;
+        private BlockingQueue<Slot> done;
+
+        /**
+         * @param size
+         *            Bytes in the buffer
+         */
+        Slot(int size) {
+            this.data = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-08-2023
+ * 
+ * @since 11-08-2023
+ * 
+ *        Counting sort engine for the 2 byte key
+ *        The first pass builds a histogram of all 65536 keys, the second
+ *        scatters every record through per-key write buffers into its
+ *        final place in a new file, so all I/O is O(n)
+ *        When the key buffers do not fit the memory budget the scatter
+ *        is split into several passes over key ranges, and when that
+ *        would take too many passes the merge sort engine is used instead
+ * 
+ */
+public class DistributionSort {
+    private static final int REC = BufferPool.RECORD_SIZE;
+    private static final int BUCKETS = 1 << 16;
+
+    /** Smallest useful write buffer for one key */
+    private static final int MIN_BUCKET_BYTES = 16 * REC;
+
+    /** Most scatter passes before falling back to merge sort */
+    private static final int MAX_PASSES = 8;
+
+    /** Largest write buffer arena, the biggest byte[] of whole records */
+    private static final int MAX_ARENA_BYTES = (Integer.MAX_VALUE - 8) / REC
+        * REC;
+
+    private String filePath;
+    private String storeKind;
+    private int numBuffers;
+    private int blockSize;
+
+    private PoolStats stats;
+
+    /**
+     * Constructor
+     * 
+     * @param filePath
+     *            Data filename
+     * @param storeKind
+     *            Block store used for the data and output files
+     * @param numBuffers
+     *            Memory budget in blocks
+     * @param blockSize
+     *            Size of each data block/buffer
+     * @param stats
+     *            Counts the blocks read and written
+     */
+    public DistributionSort(
+        String filePath,
+        String storeKind,
+        int numBuffers,
+        int blockSize,
+        PoolStats stats) {
+        this.filePath = filePath;
+        this.storeKind = storeKind;
+        this.numBuffers = numBuffers;
+        this.blockSize = blockSize;
+        this.stats = stats;
+    }
+
+
+    /**
+     * Sorts the whole file
+     * 
+     * @throws Exception
+     */
+    public void sort() throws Exception {
+        String outPath = filePath + ".dist";
+        BlockStore data = BlockStore.open(storeKind, filePath);
+        BlockStore out = null;
+        try {
+            // Bytes after the last whole record are copied through as
+            // they are, as the other engines leave them in place
+            long length = data.length();
+            long size = length - length % REC;
+            byte[] input = new byte[blockSize];
+
+            long[] counts = new long[BUCKETS];
+            for (long pos = 0; pos < size; pos += input.length) {
+                int len = read(data, pos, size, input);
+                for (int off = 0; off < len; off += REC) {
+                    counts[bucket(input, off)]++;
+                }
+            }
+            int used = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                if (counts[b] > 0) {
+                    used++;
+                }
+            }
+
+            // One block of the budget streams the input
+            long budget = (long)(numBuffers - 1) * blockSize;
+            long perPass = Math.min(used, budget / MIN_BUCKET_BYTES);
+            if (perPass == 0 || (used + perPass - 1) / perPass > MAX_PASSES) {
+                data.close();
+                data = null;
+                new MergeSort(filePath, storeKind, numBuffers, blockSize,
+                    stats).sort();
+                return;
+            }
+            int bucketBytes = (int)(Math.min(budget, MAX_ARENA_BYTES)
+                / perPass / REC * REC);
+
+            long[] next = new long[BUCKETS];
+            long total = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                next[b] = total;
+                total += counts[b] * REC;
+            }
+
+            try (RandomAccessFile raf = new RandomAccessFile(outPath, "rw")) {
+                raf.setLength(length);
+            }
+            out = BlockStore.open(storeKind, outPath);
+            scatter(data, out, size, input, counts, next, (int)perPass,
+                bucketBytes);
+            if (length > size) {
+                int tail = read(data, size, length, input);
+                long start = System.nanoTime();
+                out.write(size, input, 0, tail);
+                stats.write(1, tail, System.nanoTime() - start);
+            }
+        }
+        finally {
+            if (data != null) {
+                data.close();
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+        Files.move(Paths.get(outPath), Paths.get(filePath),
+            StandardCopyOption.REPLACE_EXISTING);
+    }
+
+
+    /**
+     * Scatters every record to its final position, one range of keys per
+     * pass over the input
+     * Each key's write buffer holds no more than the key's records, so
+     * the arena is no bigger than the file
+     * 
+     * @param data
+     *            Store holding the unsorted records
+     * @param out
+     *            Store receiving the sorted records
+     * @param size
+     *            Number of bytes holding records
+     * @param input
+     *            Input block buffer
+     * @param counts
+     *            Records per key
+     * @param next
+     *            Next output position per key
+     * @param perPass
+     *            Most keys buffered in one pass
+     * @param bucketBytes
+     *            Largest write buffer of a key
+     * @throws Exception
+     */
+    private void scatter(
+        BlockStore data,
+        BlockStore out,
+        long size,
+        byte[] input,
+        long[] counts,
+        long[] next,
+        int perPass,
+        int bucketBytes)
+        throws Exception {
+        byte[] arena = new byte[arenaSize(counts, perPass, bucketBytes)];
+        int[] slotOf = new int[BUCKETS];
+        int[] slotBucket = new int[perPass];
+        int[] base = new int[perPass];
+        int[] cap = new int[perPass];
+        int[] fill = new int[perPass];
+
+        int first = 0;
+        while (first < BUCKETS) {
+            Arrays.fill(slotOf, -1);
+            int slots = 0;
+            int at = 0;
+            int b = first;
+            for (; b < BUCKETS && slots < perPass; b++) {
+                if (counts[b] > 0) {
+                    slotOf[b] = slots;
+                    slotBucket[slots] = b;
+                    base[slots] = at;
+                    cap[slots] = (int)Math.min(bucketBytes, counts[b] * REC);
+                    fill[slots] = 0;
+                    at += cap[slots];
+                    slots++;
+                }
+            }
+            first = b;
+            if (slots == 0) {
+                break;
+            }
+
+            for (long pos = 0; pos < size; pos += input.length) {
+                int len = read(data, pos, size, input);
+                for (int off = 0; off < len; off += REC) {
+                    int slot = slotOf[bucket(input, off)];
+                    if (slot < 0) {
+                        continue;
+                    }
+                    System.arraycopy(input, off, arena, base[slot]
+                        + fill[slot], REC);
+                    fill[slot] += REC;
+                    if (fill[slot] == cap[slot]) {
+                        flush(out, arena, slot, base, fill, next,
+                            slotBucket[slot]);
+                    }
+                }
+            }
+            for (int slot = 0; slot < slots; slot++) {
+                if (fill[slot] > 0) {
+                    flush(out, arena, slot, base, fill, next,
+                        slotBucket[slot]);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @param counts
+     *            Records per key
+     * @param perPass
+     *            Most keys buffered in one pass
+     * @param bucketBytes
+     *            Largest write buffer of a key
+     * @return Bytes of the largest pass's write buffers, each key
+     *         buffering no more than its records
+     */
+    private static int arenaSize(long[] counts, int perPass, int bucketBytes) {
+        long most = 0;
+        long pass = 0;
+        int slots = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            if (counts[b] > 0) {
+                if (slots == perPass) {
+                    most = Math.max(most, pass);
+                    pass = 0;
+                    slots = 0;
+                }
+                pass += Math.min(bucketBytes, counts[b] * REC);
+                slots++;
+            }
+        }
+        return (int)Math.max(most, pass);
+    }
+
+
+    /**
+     * Writes a key's buffered records to the next stretch of its region
+     * 
+     * @param out
+     *            Store receiving the sorted records
+     * @param arena
+     *            Write buffers of every key in the pass
+     * @param slot
+     *            Write buffer being flushed
+     * @param base
+     *            Offset of each write buffer in the arena
+     * @param fill
+     *            Bytes held per write buffer
+     * @param next
+     *            Next output position per key
+     * @param bucket
+     *            Key held by the write buffer
+     * @throws Exception
+     */
+    private void flush(
+        BlockStore out,
+        byte[] arena,
+        int slot,
+        int[] base,
+        int[] fill,
+        long[] next,
+        int bucket)
+        throws Exception {
+        long start = System.nanoTime();
+        out.write(next[bucket], arena, base[slot], fill[slot]);
+        stats.write((fill[slot] + blockSize - 1) / blockSize, fill[slot],
+            System.nanoTime() - start);
+        next[bucket] += fill[slot];
+        fill[slot] = 0;
+    }
+
+
+    /**
+     * Reads the next input block
+     * 
+     * @param data
+     *            Store holding the unsorted records
+     * @param pos
+     *            Position of the block
+     * @param size
+     *            Position the reads stop at
+     * @param input
+     *            Input block buffer
+     * @return Number of bytes read
+     * @throws Exception
+     */
+    private int read(BlockStore data, long pos, long size, byte[] input)
+        throws Exception {
+        int len = (int)Math.min(input.length, size - pos);
+        long start = System.nanoTime();
+        data.read(pos, input, 0, len);
+        stats.read(1, len, System.nanoTime() - start);
+        return len;
+    }
+
+
+    /**
+     * Maps a record's signed key onto an ascending bucket number
+     * 
+     * @param data
+     *            Array holding the record
+     * @param off
+     *            Offset of the record
+     * @return Bucket from 0 to 65535
+     */
+    private static int bucket(byte[] data, int off) {
+        return (((data[off] & 0xFF) << 8) | (data[off + 1] & 0xFF)) ^ 0x8000;
+    }
+}
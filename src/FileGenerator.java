@@ -1,5 +1,11 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.stream.LongStream;
 
 /**
  * Generate a test data file. The size is a multiple of 4096 bytes. Depending on
@@ -7,6 +13,10 @@ import java.util.*;
  * output will be set so that when interpreted as ASCII characters, it will look
  * like a series of: [space][letter][space][space]. With option "-b", the
  * records are short ints, with each record having a value less than 30,000.
+ * Files of other record layouts are filled with random bytes.
+ * Larger inputs come from the seeded generator, which writes chunks of
+ * records in parallel with one of several key distributions, each chunk
+ * from its own SplittableRandom so the file only depends on the seed.
  *
  * @author Modified from original command-line version by Cliff Shaffer
  * @version Sep 28, 2014
@@ -14,6 +24,45 @@ import java.util.*;
 public class FileGenerator
 {
     private static final int NUM_RECS = 2048;        // Because they are short
+    private static final int CHUNK_BYTES = 1 << 20;  // Per parallel task
+    private static final int FEW = 16;               // Keys of FEW_UNIQUE
+    private static final int ZIPF_KEYS = 1 << 15;    // Keys of ZIPF
+    private static final int SWAPS = 100;            // 1 in SWAPS moved
+
+    /**
+     * Key distributions of the seeded generator
+     */
+    public enum Distribution
+    {
+        /** Uniform random keys */
+        RANDOM,
+        /** Records read as [space][letter][space][space] */
+        ASCII,
+        /** Ascending keys */
+        SORTED,
+        /** Descending keys */
+        REVERSE,
+        /** Ascending to the middle of the file, then descending */
+        ORGAN_PIPE,
+        /** One key throughout */
+        ALL_EQUAL,
+        /** FEW distinct keys */
+        FEW_UNIQUE,
+        /** Keys ranked by a Zipf law, the smallest is the most frequent */
+        ZIPF,
+        /** Ascending, with 1 in SWAPS records swapped within its chunk */
+        NEARLY_SORTED;
+
+        /**
+         * @param name
+         *            Distribution in lower case, e.g. "organ-pipe"
+         * @return The distribution
+         */
+        public static Distribution forName(String name)
+        {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
 
     /** Initialize the random variable */
     static private Random    value    = new Random(); // Hold the Random class
@@ -81,4 +130,296 @@ public class FileGenerator
         file.flush();
         file.close();
     }
+
+
+    /**
+     * This method generates a file of random records with any layout. The
+     * file holds as many whole records as fit in the given blocks.
+     *
+     * @param filename
+     *            the name of the file to create/write to
+     * @param blocks
+     *            the size of the file in 4096 byte blocks
+     * @param layout
+     *            the size of the records
+     * @throws IOException
+     *             an exception
+     */
+    public void generateFile(String filename, int blocks, RecordLayout layout)
+        throws IOException
+    {
+        long count = (long)blocks * 4096 / layout.getRecordSize();
+        byte[] record = new byte[layout.getRecordSize()];
+        DataOutputStream file =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                filename)));
+        for (long i = 0; i < count; i++)
+        {
+            value.nextBytes(record);
+            file.write(record);
+        }
+        file.flush();
+        file.close();
+    }
+
+
+    /**
+     * This method generates a file with the seeded generator. The file
+     * holds as many whole records as fit in the given blocks, each key
+     * is written in the layout's width and byte order, and the rest of
+     * each record is filled with random bytes. Keys are never negative,
+     * so signed and unsigned key types see the same order.
+     *
+     * @param filename
+     *            the name of the file to create/write to
+     * @param blocks
+     *            the size of the file in 4096 byte blocks
+     * @param distribution
+     *            the order of the keys
+     * @param seed
+     *            the same seed always gives the same file
+     * @param layout
+     *            the size of the records and the place of their keys
+     * @throws IOException
+     *             an exception
+     */
+    public void generateFile(
+        String filename,
+        long blocks,
+        Distribution distribution,
+        long seed,
+        RecordLayout layout)
+        throws IOException
+    {
+        int recordSize = layout.getRecordSize();
+        long count = blocks * 4096 / recordSize;
+        int chunkRecords = Math.max(1, CHUNK_BYTES / recordSize);
+        int chunks = (int)((count + chunkRecords - 1) / chunkRecords);
+        // Split in chunk order, so threads picking chunks in any order
+        // still give each chunk the same keys
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[chunks];
+        for (int c = 0; c < chunks; c++)
+        {
+            randoms[c] = root.split();
+        }
+        double[] zipf = distribution == Distribution.ZIPF ? zipfTable() : null;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            LongStream.range(0, chunks).parallel().forEach(c ->
+            {
+                long first = c * chunkRecords;
+                int n = (int)Math.min(chunkRecords, count - first);
+                byte[] data = new byte[n * recordSize];
+                fillChunk(data, first, n, count, distribution,
+                    randoms[(int)c], zipf, layout);
+                try
+                {
+                    ByteBuffer src = ByteBuffer.wrap(data);
+                    long pos = first * recordSize;
+                    while (src.hasRemaining())
+                    {
+                        pos += channel.write(src, pos);
+                    }
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+
+    /**
+     * Fills one chunk of records
+     *
+     * @param data
+     *            the chunk's bytes
+     * @param first
+     *            index of the chunk's first record in the file
+     * @param n
+     *            records in the chunk
+     * @param count
+     *            records in the file
+     * @param distribution
+     *            the order of the keys
+     * @param random
+     *            the chunk's own random numbers
+     * @param zipf
+     *            cumulative Zipf probabilities, or null
+     * @param layout
+     *            the size of the records and the place of their keys
+     */
+    private static void fillChunk(
+        byte[] data,
+        long first,
+        int n,
+        long count,
+        Distribution distribution,
+        SplittableRandom random,
+        double[] zipf,
+        RecordLayout layout)
+    {
+        int recordSize = layout.getRecordSize();
+        int width = layout.getKeyWidth();
+        // Largest key + 1, kept below the sign bit of every key type
+        long range = 1L << Math.min(8 * width - 1, 62);
+        if (distribution == Distribution.ASCII)
+        {
+            Arrays.fill(data, (byte)0x20);
+        }
+        else
+        {
+            for (int i = 0; i < data.length; i += 8)
+            {
+                long bits = random.nextLong();
+                for (int b = i; b < Math.min(i + 8, data.length); b++)
+                {
+                    data[b] = (byte)bits;
+                    bits >>>= 8;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++)
+        {
+            long index = first + i;
+            long key;
+            switch (distribution)
+            {
+                case RANDOM:
+                    key = random.nextLong(range);
+                    break;
+                case ASCII:
+                    key = 0x2041 + random.nextInt(26);
+                    break;
+                case SORTED:
+                case NEARLY_SORTED:
+                    key = scale(index, count, range);
+                    break;
+                case REVERSE:
+                    key = scale(count - 1 - index, count, range);
+                    break;
+                case ORGAN_PIPE:
+                    key = scale(2 * Math.min(index, count - 1 - index), count,
+                        range);
+                    break;
+                case ALL_EQUAL:
+                    key = range / 2;
+                    break;
+                case FEW_UNIQUE:
+                    key = random.nextInt(FEW) * (range / FEW);
+                    break;
+                default:
+                    int rank = Arrays.binarySearch(zipf, random.nextDouble());
+                    rank = rank < 0 ? -rank - 1 : rank;
+                    key = scale(Math.min(rank, zipf.length - 1), zipf.length,
+                        range);
+                    break;
+            }
+            writeKey(data, i * recordSize + layout.getKeyOffset(), width,
+                layout.getByteOrder() == ByteOrder.BIG_ENDIAN, key);
+        }
+        if (distribution == Distribution.NEARLY_SORTED)
+        {
+            for (int s = 0; s < n / SWAPS; s++)
+            {
+                swap(data, random.nextInt(n), random.nextInt(n), recordSize);
+            }
+        }
+    }
+
+
+    /**
+     * @param index
+     *            position of a record
+     * @param count
+     *            records in the file
+     * @param range
+     *            largest key + 1
+     * @return a key rising with index from 0 to just under range
+     */
+    private static long scale(long index, long count, long range)
+    {
+        return (long)((double)index / count * range);
+    }
+
+
+    /**
+     * @return cumulative probabilities of ZIPF_KEYS ranks, rank k having
+     *         weight 1 / (k + 1)
+     */
+    private static double[] zipfTable()
+    {
+        double[] cdf = new double[ZIPF_KEYS];
+        double sum = 0;
+        for (int k = 0; k < ZIPF_KEYS; k++)
+        {
+            sum += 1.0 / (k + 1);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < ZIPF_KEYS; k++)
+        {
+            cdf[k] /= sum;
+        }
+        return cdf;
+    }
+
+
+    /**
+     * Writes a key of 2, 4 or 8 bytes
+     *
+     * @param data
+     *            the bytes
+     * @param off
+     *            position of the key's first byte
+     * @param width
+     *            bytes in the key
+     * @param bigEndian
+     *            true if the most significant byte comes first
+     * @param key
+     *            the key
+     */
+    private static void writeKey(
+        byte[] data,
+        int off,
+        int width,
+        boolean bigEndian,
+        long key)
+    {
+        for (int b = 0; b < width; b++)
+        {
+            int shift = 8 * (bigEndian ? width - 1 - b : b);
+            data[off + b] = (byte)(key >>> shift);
+        }
+    }
+
+
+    /**
+     * Exchanges two records of a chunk
+     *
+     * @param data
+     *            the bytes
+     * @param a
+     *            index of one record
+     * @param b
+     *            index of the other
+     * @param recordSize
+     *            bytes per record
+     */
+    private static void swap(byte[] data, int a, int b, int recordSize)
+    {
+        for (int i = 0; i < recordSize; i++)
+        {
+            byte tmp = data[a * recordSize + i];
+            data[a * recordSize + i] = data[b * recordSize + i];
+            data[b * recordSize + i] = tmp;
+        }
+    }
 }
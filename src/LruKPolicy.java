@@ -0,0 +1,182 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-10-2023
+ * 
+ * @since 11-10-2023
+ * 
+ *        LRU-K replacement (O'Neil, O'Neil and Weikum)
+ *        Evicts the block whose K-th most recent reference is oldest,
+ *        blocks with fewer than K references go first, oldest last
+ *        reference first
+ *        Reference history outlives eviction for as many blocks as the
+ *        pool holds, so a block that comes straight back keeps its past
+ *        Resident blocks sit in a binary heap ordered by that rule, so a
+ *        reference or eviction costs O(log n)
+ * 
+ */
+public class LruKPolicy implements BufferPool.ReplacementPolicy {
+    private int k;
+    private long clock;
+    private Buffer[] resident;
+    private long[][] history;
+    private int loaded;
+    private int[] heap;
+    private int[] heapPos;
+    private LinkedHashMap<Long, long[]> retained;
+
+    /**
+     * Constructor
+     * 
+     * @param numBuffers
+     *            Number of buffers within the pool
+     * @param k
+     *            Number of references tracked per block
+     */
+    public LruKPolicy(final int numBuffers, int k) {
+        this.k = k;
+        this.resident = new Buffer[numBuffers];
+        this.history = new long[numBuffers][];
+        this.heap = new int[numBuffers];
+        this.heapPos = new int[numBuffers];
+        this.retained = new LinkedHashMap<Long, long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<Long, long[]> eldest) {
+                return size() > numBuffers;
+            }
+        };
+    }
+
+
+    @Override
+    public void recordHit(Buffer buff) {
+        reference(history[buff.getTag()]);
+        // A reference only makes the block a later victim
+        siftDown(heapPos[buff.getTag()]);
+    }
+
+
+    @Override
+    public void recordLoad(Buffer buff) {
+        int slot = buff.getTag();
+        if (slot < 0) {
+            slot = loaded++;
+            buff.setTag(slot);
+            resident[slot] = buff;
+            heap[slot] = slot;
+            heapPos[slot] = slot;
+        }
+        long[] times = retained.remove(buff.getPos());
+        if (times == null) {
+            times = new long[k];
+        }
+        history[slot] = times;
+        reference(times);
+        // A retained history can be older than the victim's it replaced
+        siftUp(heapPos[slot]);
+        siftDown(heapPos[slot]);
+    }
+
+
+    @Override
+    public Buffer evict(long pos) {
+        // The victim stays at the top until recordLoad gives it the new
+        // block's history
+        int victim = heap[0];
+        Buffer buff = resident[victim];
+        retained.put(buff.getPos(), history[victim]);
+        return buff;
+    }
+
+
+    /**
+     * @param a
+     *            Slot of one resident block
+     * @param b
+     *            Slot of another
+     * @return True if a is evicted before b
+     */
+    private boolean before(int a, int b) {
+        long[] x = history[a];
+        long[] y = history[b];
+        return x[k - 1] < y[k - 1] || (x[k - 1] == y[k - 1] && x[0] < y[0]);
+    }
+
+
+    /**
+     * @param i
+     *            Heap index of a block that may go before its parent
+     */
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!before(heap[i], heap[parent])) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+
+    /**
+     * @param i
+     *            Heap index of a block that may go after its children
+     */
+    private void siftDown(int i) {
+        while (true) {
+            int first = i;
+            int left = 2 * i + 1;
+            if (left < loaded && before(heap[left], heap[first])) {
+                first = left;
+            }
+            if (left + 1 < loaded && before(heap[left + 1], heap[first])) {
+                first = left + 1;
+            }
+            if (first == i) {
+                return;
+            }
+            swap(i, first);
+            i = first;
+        }
+    }
+
+
+    /**
+     * @param i
+     *            Heap index
+     * @param j
+     *            Another heap index
+     */
+    private void swap(int i, int j) {
+        int a = heap[i];
+        heap[i] = heap[j];
+        heap[j] = a;
+        heapPos[heap[i]] = i;
+        heapPos[heap[j]] = j;
+    }
+
+
+    /**
+     * Shifts a new reference time into a block's history
+     * 
+     * @param times
+     *            Reference times, most recent first, 0 if unused
+     */
+    private void reference(long[] times) {
+        System.arraycopy(times, 0, times, 1, k - 1);
+        times[0] = ++clock;
+    }
+
+
+    @Override
+    public String getName() {
+        return "LRU-" + k;
+    }
+}
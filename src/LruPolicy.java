@@ -0,0 +1,36 @@
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-10-2023
+ * 
+ * @since 11-10-2023
+ * 
+ *        Least Recently Used replacement
+ * 
+ */
+public class LruPolicy implements BufferPool.ReplacementPolicy {
+    private BufferList lru = new BufferList();
+
+    @Override
+    public void recordHit(Buffer buff) {
+        lru.moveToFront(buff);
+    }
+
+
+    @Override
+    public void recordLoad(Buffer buff) {
+        lru.addFirst(buff);
+    }
+
+
+    @Override
+    public Buffer evict(long pos) {
+        return lru.removeLast();
+    }
+
+
+    @Override
+    public String getName() {
+        return "LRU";
+    }
+}
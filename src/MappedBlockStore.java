@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-02-2023
+ * 
+ * @since 11-02-2023
+ * 
+ *        BlockStore mapping the data file in fixed size windows
+ *        Windows are mapped on first use and kept, so random access
+ *        never churns through mappings
+ * 
+ */
+public class MappedBlockStore implements BlockStore {
+    /** Default size of a mapped window, a multiple of any block size */
+    public static final int WINDOW_SIZE = 64 << 20;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private int windowSize;
+    private long length;
+    private MappedByteBuffer[] windows;
+
+    /**
+     * Constructor
+     * 
+     * @param filePath
+     *            Data filename
+     * @throws IOException
+     */
+    public MappedBlockStore(String filePath) throws IOException {
+        this(filePath, WINDOW_SIZE);
+    }
+
+
+    /**
+     * Constructor
+     * 
+     * @param filePath
+     *            Data filename
+     * @param windowSize
+     *            Number of bytes mapped at once
+     * @throws IOException
+     */
+    public MappedBlockStore(String filePath, int windowSize)
+        throws IOException {
+        this.raf = new RandomAccessFile(filePath, "rw");
+        this.channel = raf.getChannel();
+        this.windowSize = windowSize;
+        this.length = channel.size();
+        this.windows = new MappedByteBuffer[(int)((length + windowSize - 1)
+            / windowSize)];
+    }
+
+
+    @Override
+    public int read(long pos, byte[] data, int off, int len)
+        throws IOException {
+        if (pos >= length) {
+            return -1;
+        }
+        int total = (int)Math.min(len, length - pos);
+        int done = 0;
+        while (done < total) {
+            MappedByteBuffer window = getWindow(pos + done);
+            int winOff = (int)((pos + done) % windowSize);
+            int n = Math.min(total - done, window.limit() - winOff);
+            window.position(winOff);
+            window.get(data, off + done, n);
+            done += n;
+        }
+        return total;
+    }
+
+
+    @Override
+    public void write(long pos, byte[] data, int off, int len)
+        throws IOException {
+        if (pos + len > length) {
+            grow(pos, data, off, len);
+            return;
+        }
+        int done = 0;
+        while (done < len) {
+            MappedByteBuffer window = getWindow(pos + done);
+            int winOff = (int)((pos + done) % windowSize);
+            int n = Math.min(len - done, window.limit() - winOff);
+            window.position(winOff);
+            window.put(data, off + done, n);
+            done += n;
+        }
+    }
+
+
+    /**
+     * Writes past the end of the file through the channel, since a
+     * mapping cannot extend the file
+     * 
+     * @param pos
+     *            Absolute position in the data file
+     * @param data
+     *            Array holding the bytes to write
+     * @param off
+     *            Offset of the first byte within data
+     * @param len
+     *            Number of bytes to write
+     * @throws IOException
+     */
+    private void grow(long pos, byte[] data, int off, int len)
+        throws IOException {
+        int last = (int)(length / windowSize);
+        if (last < windows.length && windows[last] != null) {
+            windows[last].force();
+            windows[last] = null;
+        }
+        ByteBuffer src = ByteBuffer.wrap(data, off, len);
+        while (src.hasRemaining()) {
+            channel.write(src, pos + src.position() - off);
+        }
+        length = channel.size();
+        int count = (int)((length + windowSize - 1) / windowSize);
+        if (count > windows.length) {
+            windows = Arrays.copyOf(windows, count);
+        }
+    }
+
+
+    /**
+     * Maps the window covering pos if it is not already mapped
+     * 
+     * @param pos
+     *            Absolute position within the file
+     * @return Window holding pos
+     * @throws IOException
+     */
+    private MappedByteBuffer getWindow(long pos) throws IOException {
+        int index = (int)(pos / windowSize);
+        MappedByteBuffer window = windows[index];
+        if (window == null) {
+            long start = (long)index * windowSize;
+            window = channel.map(FileChannel.MapMode.READ_WRITE, start, Math
+                .min(windowSize, length - start));
+            windows[index] = window;
+        }
+        return window;
+    }
+
+
+    @Override
+    public long length() throws IOException {
+        return length;
+    }
+
+
+    @Override
+    public void force() throws IOException {
+        for (int i = 0; i < windows.length; i++) {
+            if (windows[i] != null) {
+                windows[i].force();
+            }
+        }
+        channel.force(false);
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        for (int i = 0; i < windows.length; i++) {
+            if (windows[i] != null) {
+                windows[i].force();
+                windows[i] = null;
+            }
+        }
+        channel.close();
+        raf.close();
+    }
+}
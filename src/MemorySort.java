@@ -0,0 +1,164 @@
+import java.util.Arrays;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-06-2023
+ * 
+ * @since 11-06-2023
+ * 
+ *        Sorts records that are already in memory
+ *        A 4 byte record read big-endian is an int whose high half is the
+ *        key, so sorting the ints sorts the records by key
+ *        Records of other layouts are sorted by a stable merge of their
+ *        keys, then moved into place once
+ * 
+ */
+public class MemorySort {
+    private static final int REC = BufferPool.RECORD_SIZE;
+
+    /**
+     * Sorts the records held in a byte array
+     * 
+     * @param data
+     *            Records, sorted in place
+     * @param len
+     *            Number of bytes holding records
+     * @param scratch
+     *            Array with room for len / 4 records
+     */
+    public static void sortRecords(byte[] data, int len, int[] scratch) {
+        int count = pack(data, len, scratch);
+        Arrays.sort(scratch, 0, count);
+        unpack(scratch, count, data);
+    }
+
+
+    /**
+     * Packs records into ints
+     * 
+     * @param data
+     *            Records
+     * @param len
+     *            Number of bytes holding records
+     * @param records
+     *            Array receiving the packed records
+     * @return Number of records packed
+     */
+    public static int pack(byte[] data, int len, int[] records) {
+        int count = len / REC;
+        for (int i = 0, off = 0; i < count; i++, off += REC) {
+            records[i] = (data[off] << 24) | ((data[off + 1] & 0xFF) << 16)
+                | ((data[off + 2] & 0xFF) << 8) | (data[off + 3] & 0xFF);
+        }
+        return count;
+    }
+
+
+    /**
+     * Unpacks ints back into records
+     * 
+     * @param records
+     *            Packed records
+     * @param count
+     *            Number of records
+     * @param data
+     *            Array receiving the records
+     */
+    public static void unpack(int[] records, int count, byte[] data) {
+        for (int i = 0, off = 0; i < count; i++, off += REC) {
+            int record = records[i];
+            data[off] = (byte)(record >>> 24);
+            data[off + 1] = (byte)(record >>> 16);
+            data[off + 2] = (byte)(record >>> 8);
+            data[off + 3] = (byte)record;
+        }
+    }
+
+
+    /**
+     * Sorts the records of any layout held in a byte array
+     * 
+     * @param data
+     *            Records, sorted in place
+     * @param len
+     *            Number of bytes holding records
+     * @param layout
+     *            Size of the records and where their key sits
+     * @param keys
+     *            Array with room for a key per record
+     * @param order
+     *            Array with room for two ints per record
+     * @param copy
+     *            Array with room for len bytes
+     */
+    public static void sortRecords(
+        byte[] data,
+        int len,
+        RecordLayout layout,
+        long[] keys,
+        int[] order,
+        byte[] copy) {
+        int size = layout.getRecordSize();
+        int count = len / size;
+        for (int i = 0; i < count; i++) {
+            keys[i] = layout.readKey(data, i * size);
+            order[i] = i;
+        }
+
+        int src = orderByKey(keys, count, order);
+
+        System.arraycopy(data, 0, copy, 0, count * size);
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(copy, order[src + i] * size, data, i * size,
+                size);
+        }
+    }
+
+
+    /**
+     * Stable sort of record numbers by their keys
+     * 
+     * @param keys
+     *            Key of each record
+     * @param count
+     *            Number of records
+     * @param order
+     *            Array with room for two ints per record, its first count
+     *            entries must hold the record numbers to sort
+     * @return Where the sorted record numbers start in order, 0 or count
+     */
+    public static int orderByKey(long[] keys, int count, int[] order) {
+        // Bottom-up merge of record numbers, between the two halves of
+        // order
+        int src = 0;
+        int dst = count;
+        for (int width = 1; width < count; width *= 2) {
+            for (int lo = 0; lo < count; lo += 2 * width) {
+                int mid = Math.min(lo + width, count);
+                int hi = Math.min(lo + 2 * width, count);
+                int i = lo;
+                int j = mid;
+                int k = dst + lo;
+                while (i < mid && j < hi) {
+                    if (keys[order[src + j]] < keys[order[src + i]]) {
+                        order[k++] = order[src + j++];
+                    }
+                    else {
+                        order[k++] = order[src + i++];
+                    }
+                }
+                while (i < mid) {
+                    order[k++] = order[src + i++];
+                }
+                while (j < hi) {
+                    order[k++] = order[src + j++];
+                }
+            }
+            int temp = src;
+            src = dst;
+            dst = temp;
+        }
+        return src;
+    }
+}
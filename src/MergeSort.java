@@ -0,0 +1,407 @@
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-06-2023
+ * 
+ * @since 11-06-2023
+ * 
+ *        External merge sort engine for files much larger than the pool
+ *        Runs of half the pool are sorted in memory, as each run is
+ *        also unpacked into an int[] of the same size, then merged k at
+ *        a time through a heap of packed records
+ *        Every read and write walks the files sequentially
+ * 
+ */
+public class MergeSort {
+    private static final int REC = BufferPool.RECORD_SIZE;
+
+    /** Most runs merged at once, so each run keeps a useful read size */
+    private static final int MAX_FAN_IN = 64;
+
+    /** Largest run, the biggest byte[] of whole records */
+    private static final int MAX_RUN_BYTES = (Integer.MAX_VALUE - 8) / REC
+        * REC;
+
+    private String filePath;
+    private String storeKind;
+    private int numBuffers;
+    private int blockSize;
+
+    private PoolStats stats;
+
+    // Merge state, one slot per run being merged
+    private byte[][] inputs;
+    private int[] inputPos;
+    private int[] inputLen;
+    private long[] runNext;
+    private long[] runEnd;
+    private int[] heapRecord;
+    private int[] heapRun;
+    private int heapSize;
+
+    /**
+     * Constructor
+     * 
+     * @param filePath
+     *            Data filename
+     * @param storeKind
+     *            Block store used for the data and run files
+     * @param numBuffers
+     *            Memory budget in blocks, at least three are used
+     * @param blockSize
+     *            Size of each data block/buffer
+     * @param stats
+     *            Counts the blocks read and written
+     */
+    public MergeSort(
+        String filePath,
+        String storeKind,
+        int numBuffers,
+        int blockSize,
+        PoolStats stats) {
+        this.filePath = filePath;
+        this.storeKind = storeKind;
+        this.numBuffers = Math.max(3, numBuffers);
+        this.blockSize = blockSize;
+        this.stats = stats;
+    }
+
+
+    /**
+     * Sorts the whole file
+     * Passes alternate between the data file and a run file, the run
+     * generation pass picks its target so the last pass lands in the
+     * data file
+     * 
+     * @throws Exception
+     */
+    public void sort() throws Exception {
+        String runPath = filePath + ".runs";
+        BlockStore data = BlockStore.open(storeKind, filePath);
+        BlockStore runs = null;
+        try {
+            long size = data.length() - data.length() % REC;
+            int runBytes = runSize(size);
+            int fanIn = Math.min(numBuffers - 1, MAX_FAN_IN);
+
+            int passes = 0;
+            for (long count = (size + runBytes - 1) / runBytes; count > 1;
+                count = (count + fanIn - 1) / fanIn) {
+                passes++;
+            }
+            if (passes > 0) {
+                try (RandomAccessFile raf = new RandomAccessFile(runPath,
+                    "rw")) {
+                    raf.setLength(size);
+                }
+                runs = BlockStore.open(storeKind, runPath);
+            }
+
+            BlockStore src = data;
+            BlockStore dst = passes % 2 == 0 ? data : runs;
+            generateRuns(src, dst, size, runBytes);
+
+            if (passes == 0) {
+                return;
+            }
+            // No run input needs more than the file holds
+            allocateMerge(fanIn, (int)Math.min((long)(numBuffers - 1)
+                / fanIn * blockSize, size));
+            byte[] output = new byte[blockSize];
+            for (long runLen = runBytes; runLen < size; runLen *= fanIn) {
+                src = dst;
+                dst = src == data ? runs : data;
+                for (long start = 0; start < size; start += runLen * fanIn) {
+                    merge(src, dst, start, Math.min(start + runLen * fanIn,
+                        size), runLen, output);
+                }
+            }
+        }
+        finally {
+            data.close();
+            if (runs != null) {
+                runs.close();
+                Files.deleteIfExists(Paths.get(runPath));
+            }
+        }
+    }
+
+
+    /**
+     * @param size
+     *            Number of bytes holding records
+     * @return Bytes in a run, so the run and its int[] copy together
+     *         fill the pool's buffers, and no more than the file holds
+     */
+    private int runSize(long size) {
+        long half = (long)numBuffers * blockSize / 2 / REC * REC;
+        return (int)Math.max(REC, Math.min(Math.min(half, size),
+            MAX_RUN_BYTES));
+    }
+
+
+    /**
+     * Sorts the file one half-pool run at a time
+     * 
+     * @param src
+     *            Store holding the unsorted records
+     * @param dst
+     *            Store receiving the sorted runs
+     * @param size
+     *            Number of bytes holding records
+     * @param runBytes
+     *            Size of a run
+     * @throws Exception
+     */
+    private void generateRuns(
+        BlockStore src,
+        BlockStore dst,
+        long size,
+        int runBytes)
+        throws Exception {
+        byte[] chunk = new byte[runBytes];
+        int[] records = new int[runBytes / REC];
+        for (long pos = 0; pos < size; pos += runBytes) {
+            int len = (int)Math.min(runBytes, size - pos);
+            read(src, pos, chunk, len);
+            MemorySort.sortRecords(chunk, len, records);
+            write(dst, pos, chunk, len);
+        }
+    }
+
+
+    /**
+     * Sets up the per-run input buffers and the heap
+     * 
+     * @param fanIn
+     *            Most runs merged at once
+     * @param inputBytes
+     *            Size of each run's input buffer
+     */
+    private void allocateMerge(int fanIn, int inputBytes) {
+        inputs = new byte[fanIn][inputBytes];
+        inputPos = new int[fanIn];
+        inputLen = new int[fanIn];
+        runNext = new long[fanIn];
+        runEnd = new long[fanIn];
+        heapRecord = new int[fanIn];
+        heapRun = new int[fanIn];
+    }
+
+
+    /**
+     * Merges the sorted runs of one group into a single run
+     * 
+     * @param src
+     *            Store holding the runs
+     * @param dst
+     *            Store receiving the merged run
+     * @param start
+     *            Position of the group's first run
+     * @param end
+     *            Position one past the group's last run
+     * @param runLen
+     *            Length of every run except possibly the last
+     * @param output
+     *            Output block buffer
+     * @throws Exception
+     */
+    private void merge(
+        BlockStore src,
+        BlockStore dst,
+        long start,
+        long end,
+        long runLen,
+        byte[] output)
+        throws Exception {
+        heapSize = 0;
+        int run = 0;
+        for (long pos = start; pos < end; pos += runLen, run++) {
+            runNext[run] = pos;
+            runEnd[run] = Math.min(pos + runLen, end);
+            fill(src, run);
+            push(nextRecord(run), run);
+        }
+
+        long outPos = start;
+        int outLen = 0;
+        while (heapSize > 0) {
+            int record = heapRecord[0];
+            int top = heapRun[0];
+            output[outLen] = (byte)(record >>> 24);
+            output[outLen + 1] = (byte)(record >>> 16);
+            output[outLen + 2] = (byte)(record >>> 8);
+            output[outLen + 3] = (byte)record;
+            outLen += REC;
+            if (outLen == output.length) {
+                write(dst, outPos, output, outLen);
+                outPos += outLen;
+                outLen = 0;
+            }
+
+            if (inputPos[top] == inputLen[top]) {
+                fill(src, top);
+            }
+            if (inputLen[top] == 0) {
+                heapSize--;
+                heapRecord[0] = heapRecord[heapSize];
+                heapRun[0] = heapRun[heapSize];
+            }
+            else {
+                heapRecord[0] = nextRecord(top);
+            }
+            siftDown();
+        }
+        if (outLen > 0) {
+            write(dst, outPos, output, outLen);
+        }
+    }
+
+
+    /**
+     * Reads the next stretch of a run into its input buffer
+     * 
+     * @param src
+     *            Store holding the run
+     * @param run
+     *            Run slot
+     * @throws Exception
+     */
+    private void fill(BlockStore src, int run) throws Exception {
+        int len = (int)Math.min(inputs[run].length, runEnd[run]
+            - runNext[run]);
+        if (len > 0) {
+            read(src, runNext[run], inputs[run], len);
+            runNext[run] += len;
+        }
+        inputPos[run] = 0;
+        inputLen[run] = len;
+    }
+
+
+    /**
+     * Takes the next record from a run's input buffer
+     * 
+     * @param run
+     *            Run slot
+     * @return the packed record
+     */
+    private int nextRecord(int run) {
+        byte[] in = inputs[run];
+        int off = inputPos[run];
+        inputPos[run] = off + REC;
+        return (in[off] << 24) | ((in[off + 1] & 0xFF) << 16) | ((in[off
+            + 2] & 0xFF) << 8) | (in[off + 3] & 0xFF);
+    }
+
+
+    /**
+     * Adds a run's current record to the heap
+     * 
+     * @param record
+     *            Packed record
+     * @param run
+     *            Run slot
+     */
+    private void push(int record, int run) {
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heapRecord[parent] <= record) {
+                break;
+            }
+            heapRecord[i] = heapRecord[parent];
+            heapRun[i] = heapRun[parent];
+            i = parent;
+        }
+        heapRecord[i] = record;
+        heapRun[i] = run;
+    }
+
+
+    /**
+     * Restores the heap after the top entry changed
+     */
+    private void siftDown() {
+        if (heapSize == 0) {
+            return;
+        }
+        int record = heapRecord[0];
+        int run = heapRun[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize
+                && heapRecord[child + 1] < heapRecord[child]) {
+                child++;
+            }
+            if (record <= heapRecord[child]) {
+                break;
+            }
+            heapRecord[i] = heapRecord[child];
+            heapRun[i] = heapRun[child];
+            i = child;
+        }
+        heapRecord[i] = record;
+        heapRun[i] = run;
+    }
+
+
+    /**
+     * Reads and counts a stretch of a store
+     * 
+     * @param src
+     *            Store read
+     * @param pos
+     *            Position of the stretch
+     * @param data
+     *            Array receiving it from offset 0
+     * @param len
+     *            Bytes read
+     * @throws Exception
+     */
+    private void read(BlockStore src, long pos, byte[] data, int len)
+        throws Exception {
+        long start = System.nanoTime();
+        src.read(pos, data, 0, len);
+        stats.read(blocks(len), len, System.nanoTime() - start);
+    }
+
+
+    /**
+     * Writes and counts a stretch of a store
+     * 
+     * @param dst
+     *            Store written
+     * @param pos
+     *            Position of the stretch
+     * @param data
+     *            Array holding it from offset 0
+     * @param len
+     *            Bytes written
+     * @throws Exception
+     */
+    private void write(BlockStore dst, long pos, byte[] data, int len)
+        throws Exception {
+        long start = System.nanoTime();
+        dst.write(pos, data, 0, len);
+        stats.write(blocks(len), len, System.nanoTime() - start);
+    }
+
+
+    /**
+     * @param len
+     *            Number of bytes moved
+     * @return Number of blocks those bytes span
+     */
+    private int blocks(int len) {
+        return (len + blockSize - 1) / blockSize;
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-04-2023
+ * 
+ * @since 11-04-2023
+ * 
+ *        Fork-join QuickSort engine
+ *        Every task opens its own BufferPool segment over the file and
+ *        only writes back bytes inside its own range, so sibling tasks
+ *        can share the blocks at their boundaries
+ * 
+ */
+public class ParallelSort {
+    private static final int REC = BufferPool.RECORD_SIZE;
+
+    /** Ranges are split into at least this many tasks per thread */
+    private static final int TASKS_PER_THREAD = 4;
+
+    private String filePath;
+    private String storeKind;
+    private int blockSize;
+    private int numBuffers;
+
+    private PoolStats stats;
+
+    /**
+     * Constructor
+     * 
+     * @param filePath
+     *            Data filename
+     * @param storeKind
+     *            Block store used by every pool segment
+     * @param numBuffers
+     *            Buffers shared out between the running tasks
+     * @param blockSize
+     *            Size of each data block/buffer
+     * @param stats
+     *            Totals of every segment's counters
+     */
+    public ParallelSort(
+        String filePath,
+        String storeKind,
+        int numBuffers,
+        int blockSize,
+        PoolStats stats) {
+        this.filePath = filePath;
+        this.storeKind = storeKind;
+        this.numBuffers = numBuffers;
+        this.blockSize = blockSize;
+        this.stats = stats;
+    }
+
+
+    /**
+     * Sorts the whole file
+     * 
+     * @param threads
+     *            Parallelism of the fork-join pool
+     * @throws Exception
+     */
+    public void sort(int threads) throws Exception {
+        long size;
+        BlockStore store = BlockStore.open(storeKind, filePath);
+        try {
+            size = store.length();
+        }
+        finally {
+            store.close();
+        }
+        if (size < 2 * REC) {
+            return;
+        }
+        int segmentBuffers = Math.max(1, numBuffers / threads);
+        long forkBytes = Math.max(size / ((long)threads
+            * TASKS_PER_THREAD), (long)segmentBuffers * blockSize);
+
+        ForkJoinPool forkJoin = new ForkJoinPool(threads);
+        try {
+            // Bytes after the last whole record are left in place
+            forkJoin.invoke(new SortTask(0, (size / REC - 1) * REC,
+                segmentBuffers, forkBytes));
+        }
+        finally {
+            forkJoin.shutdown();
+        }
+    }
+
+
+    /**
+     * Sorts one range of records
+     */
+    private class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long left;
+        private final long right;
+        private final int segmentBuffers;
+        private final long forkBytes;
+
+        /**
+         * Constructor
+         * 
+         * @param left
+         *            position of the first record
+         * @param right
+         *            position of the last record
+         * @param segmentBuffers
+         *            buffers in this task's pool segment
+         * @param forkBytes
+         *            ranges larger than this are split between tasks
+         */
+        SortTask(
+            long left,
+            long right,
+            int segmentBuffers,
+            long forkBytes) {
+            this.left = left;
+            this.right = right;
+            this.segmentBuffers = segmentBuffers;
+            this.forkBytes = forkBytes;
+        }
+
+
+        @Override
+        protected void compute() {
+            try {
+                // Each segment counts on its own, the totals are added
+                // to once it is flushed
+                PoolStats counts = new PoolStats();
+                BufferPool segment = new BufferPool(segmentBuffers,
+                    blockSize, BlockStore.open(storeKind, filePath),
+                    new LruPolicy(), counts);
+                segment.setWriteWindow(left, right + REC);
+
+                Sort sort = new Sort();
+                sort.setInMemoryThreshold(segment);
+                if (right - left < forkBytes) {
+                    sort.quickSort(segment, left, right);
+                    segment.flushAll();
+                    stats.add(counts);
+                    return;
+                }
+                long pivot = sort.placePivot(segment, left, right);
+                segment.flushAll();
+                stats.add(counts);
+
+                SortTask lower = null;
+                SortTask upper = null;
+                if (pivot - left > REC) {
+                    lower = new SortTask(left, pivot - REC, segmentBuffers,
+                        forkBytes);
+                }
+                if (right - pivot > REC) {
+                    upper = new SortTask(pivot + REC, right, segmentBuffers,
+                        forkBytes);
+                }
+                if (lower != null && upper != null) {
+                    invokeAll(lower, upper);
+                }
+                else if (lower != null) {
+                    lower.compute();
+                }
+                else if (upper != null) {
+                    upper.compute();
+                }
+            }
+            catch (Exception e) {
+                completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,516 @@
+import java.io.PrintWriter;
+import java.util.Map;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-18-2023
+ * 
+ * @since 11-18-2023
+ * 
+ *        Counters kept by a BufferPool, all longs
+ *        Misses are attributed to the Sort phase that caused them, and
+ *        block reads and writes are timed into latency histograms
+ *        The int[] counters of the original BufferPool constructors are
+ *        still updated when given, so older callers keep working
+ * 
+ */
+public class PoolStats {
+
+    /**
+     * Part of the sort a request comes from
+     */
+    public enum Phase {
+        /** Anything outside a sort phase */
+        OTHER,
+        /** Picking a pivot */
+        PIVOT,
+        /** Scanning keys while partitioning */
+        PARTITION,
+        /** Exchanging two records */
+        SWAP,
+        /** Insertion sort of a small range */
+        INSORT,
+        /** Heapsort fallback */
+        HEAPSORT,
+        /** Loading or storing a range sorted in memory */
+        IN_MEMORY
+    }
+
+    private long hits;
+    private long misses;
+    private long reads;
+    private long writes;
+    private long writeCalls;
+    private long evictions;
+    private long dirtyEvictions;
+    private long bytesRead;
+    private long bytesWritten;
+    private long[] phaseMisses = new long[Phase.values().length];
+    private Phase phase = Phase.OTHER;
+    private Histogram readLatency = new Histogram();
+    private Histogram writeLatency = new Histogram();
+
+    private int[] legacyHits;
+    private int[] legacyReads;
+    private int[] legacyWrites;
+
+    /**
+     * Constructor
+     */
+    public PoolStats() {
+        this(null, null, null);
+    }
+
+
+    /**
+     * Constructor that also keeps the original int[] counters
+     * 
+     * @param cacheHits
+     *            Stores number of cacheHits, or null
+     * @param diskReads
+     *            Stores number of diskReads, or null
+     * @param diskWrites
+     *            Stores number of diskWrites, or null
+     */
+    public PoolStats(int[] cacheHits, int[] diskReads, int[] diskWrites) {
+        this.legacyHits = cacheHits;
+        this.legacyReads = diskReads;
+        this.legacyWrites = diskWrites;
+    }
+
+
+    /**
+     * Sets the phase later misses are attributed to
+     * 
+     * @param next
+     *            Phase being entered
+     * @return Phase being left, so the caller can restore it
+     */
+    public Phase setPhase(Phase next) {
+        Phase prev = phase;
+        phase = next;
+        return prev;
+    }
+
+
+    /**
+     * A request found its block in the pool
+     */
+    public void hit() {
+        hits++;
+        if (legacyHits != null) {
+            legacyHits[0]++;
+        }
+    }
+
+
+    /**
+     * A request did not find its block in the pool
+     */
+    public void miss() {
+        misses++;
+        phaseMisses[phase.ordinal()]++;
+    }
+
+
+    /**
+     * A block was read from the store
+     * 
+     * @param bytes
+     *            Bytes read
+     * @param nanos
+     *            Time the read took, or -1 if it was not timed
+     */
+    public void read(int bytes, long nanos) {
+        read(1, bytes, nanos);
+    }
+
+
+    /**
+     * Blocks were read from the store with one call
+     * 
+     * @param blocks
+     *            Blocks read
+     * @param bytes
+     *            Bytes read
+     * @param nanos
+     *            Time the read took, or -1 if it was not timed
+     */
+    public void read(int blocks, long bytes, long nanos) {
+        reads += blocks;
+        bytesRead += bytes;
+        if (nanos >= 0) {
+            readLatency.record(nanos);
+        }
+        if (legacyReads != null) {
+            legacyReads[0] += blocks;
+        }
+    }
+
+
+    /**
+     * Blocks were written to the store
+     * 
+     * @param blocks
+     *            Blocks written back
+     * @param bytes
+     *            Bytes handed to the store
+     * @param nanos
+     *            Time the write took, or -1 if nothing was written
+     */
+    public void write(int blocks, long bytes, long nanos) {
+        writes += blocks;
+        bytesWritten += bytes;
+        if (nanos >= 0) {
+            writeCalls++;
+            writeLatency.record(nanos);
+        }
+        if (legacyWrites != null) {
+            legacyWrites[0] += blocks;
+        }
+    }
+
+
+    /**
+     * Adds another pool's counters to these, e.g. a finished segment's
+     * to the totals of the engine running the segments
+     * 
+     * @param other
+     *            Counters no longer updated
+     */
+    public synchronized void add(PoolStats other) {
+        hits += other.hits;
+        misses += other.misses;
+        reads += other.reads;
+        writes += other.writes;
+        writeCalls += other.writeCalls;
+        evictions += other.evictions;
+        dirtyEvictions += other.dirtyEvictions;
+        bytesRead += other.bytesRead;
+        bytesWritten += other.bytesWritten;
+        for (int i = 0; i < phaseMisses.length; i++) {
+            phaseMisses[i] += other.phaseMisses[i];
+        }
+        readLatency.add(other.readLatency);
+        writeLatency.add(other.writeLatency);
+        if (legacyHits != null) {
+            legacyHits[0] += other.hits;
+        }
+        if (legacyReads != null) {
+            legacyReads[0] += other.reads;
+        }
+        if (legacyWrites != null) {
+            legacyWrites[0] += other.writes;
+        }
+    }
+
+
+    /**
+     * A resident block was dropped to make room
+     * 
+     * @param dirty
+     *            True if it had to be written back
+     */
+    public void evict(boolean dirty) {
+        evictions++;
+        if (dirty) {
+            dirtyEvictions++;
+        }
+    }
+
+
+    /**
+     * @return Requests that found their block resident
+     */
+    public long getHits() {
+        return hits;
+    }
+
+
+    /**
+     * @return Requests that did not
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+
+    /**
+     * @param p
+     *            Sort phase
+     * @return Misses while in that phase
+     */
+    public long getMisses(Phase p) {
+        return phaseMisses[p.ordinal()];
+    }
+
+
+    /**
+     * @return Blocks read from the store
+     */
+    public long getReads() {
+        return reads;
+    }
+
+
+    /**
+     * @return Blocks written to the store
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+
+    /**
+     * @return Write calls made to the store, a gathered run counts once
+     */
+    public long getWriteCalls() {
+        return writeCalls;
+    }
+
+
+    /**
+     * @return Blocks dropped from the pool
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+
+    /**
+     * @return Dropped blocks that were dirty
+     */
+    public long getDirtyEvictions() {
+        return dirtyEvictions;
+    }
+
+
+    /**
+     * @return Bytes read from the store
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+
+    /**
+     * @return Bytes written to the store
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+
+    /**
+     * @return Latencies of timed block reads
+     */
+    public Histogram getReadLatency() {
+        return readLatency;
+    }
+
+
+    /**
+     * @return Latencies of block writes
+     */
+    public Histogram getWriteLatency() {
+        return writeLatency;
+    }
+
+
+    /**
+     * Prints the counters in the stat file's text format
+     * 
+     * @param writer
+     *            Destination
+     * @param executionTime
+     *            total time elapsed in milliseconds
+     */
+    public void printText(PrintWriter writer, long executionTime) {
+        writer.println("Cache Hits: " + hits);
+        writer.println("Disk Reads: " + reads);
+        writer.println("Disk Writes: " + writes);
+        writer.println("Execution Time: " + executionTime + " milliseconds");
+        writer.println("Cache Misses: " + misses);
+        writer.println("Evictions: " + evictions);
+        writer.println("Dirty Evictions: " + dirtyEvictions);
+        writer.println("Bytes Read: " + bytesRead);
+        writer.println("Bytes Written: " + bytesWritten);
+        writer.println("Write Calls: " + writeCalls);
+        writer.println("Read Latency: " + readLatency);
+        writer.println("Write Latency: " + writeLatency);
+        for (Phase p : Phase.values()) {
+            writer.println("Misses " + p.name().toLowerCase() + ": "
+                + phaseMisses[p.ordinal()]);
+        }
+    }
+
+
+    /**
+     * Prints the counters as one JSON object
+     * 
+     * @param writer
+     *            Destination
+     * @param executionTime
+     *            total time elapsed in milliseconds
+     * @param extras
+     *            Further values by their text format name, e.g.
+     *            "Peak Stack Depth" becomes "peakStackDepth"
+     */
+    public void printJson(
+        PrintWriter writer,
+        long executionTime,
+        Map<String, Object> extras) {
+        writer.println("{");
+        writer.println("  \"cacheHits\": " + hits + ",");
+        writer.println("  \"cacheMisses\": " + misses + ",");
+        writer.println("  \"diskReads\": " + reads + ",");
+        writer.println("  \"diskWrites\": " + writes + ",");
+        writer.println("  \"writeCalls\": " + writeCalls + ",");
+        writer.println("  \"evictions\": " + evictions + ",");
+        writer.println("  \"dirtyEvictions\": " + dirtyEvictions + ",");
+        writer.println("  \"bytesRead\": " + bytesRead + ",");
+        writer.println("  \"bytesWritten\": " + bytesWritten + ",");
+        writer.println("  \"executionTimeMillis\": " + executionTime + ",");
+        writer.println("  \"readLatency\": " + readLatency.toJson() + ",");
+        writer.println("  \"writeLatency\": " + writeLatency.toJson() + ",");
+        StringBuilder phases = new StringBuilder("{");
+        for (Phase p : Phase.values()) {
+            if (p.ordinal() > 0) {
+                phases.append(", ");
+            }
+            phases.append('"').append(p.name().toLowerCase()).append("\": ")
+                .append(phaseMisses[p.ordinal()]);
+        }
+        writer.print("  \"missesByPhase\": " + phases.append('}'));
+        for (Map.Entry<String, Object> extra : extras.entrySet()) {
+            writer.println(",");
+            Object value = extra.getValue();
+            writer.print("  \"" + jsonKey(extra.getKey()) + "\": "
+                + (value instanceof Number
+                    ? value
+                    : "\"" + String.valueOf(value).replace("\\", "\\\\")
+                        .replace("\"", "\\\"") + "\""));
+        }
+        writer.println();
+        writer.println("}");
+    }
+
+
+    /**
+     * @param name
+     *            Text format name, e.g. "Peak Stack Depth"
+     * @return The name in camel case, e.g. "peakStackDepth"
+     */
+    private static String jsonKey(String name) {
+        StringBuilder key = new StringBuilder();
+        for (String word : name.trim().split("\\s+")) {
+            if (key.length() == 0) {
+                key.append(word.toLowerCase());
+            }
+            else {
+                key.append(Character.toUpperCase(word.charAt(0))).append(word
+                    .substring(1).toLowerCase());
+            }
+        }
+        return key.toString();
+    }
+
+
+    /**
+     * Latency histogram with a bucket per power of two nanoseconds
+     */
+    public static class Histogram {
+        private long[] buckets = new long[64];
+        private long count;
+        private long total;
+        private long max;
+
+        /**
+         * @param nanos
+         *            One measured latency
+         */
+        public void record(long nanos) {
+            buckets[63 - Long.numberOfLeadingZeros(Math.max(nanos, 1))]++;
+            count++;
+            total += nanos;
+            max = Math.max(max, nanos);
+        }
+
+
+        /**
+         * @param other
+         *            Latencies recorded elsewhere
+         */
+        public void add(Histogram other) {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] += other.buckets[i];
+            }
+            count += other.count;
+            total += other.total;
+            max = Math.max(max, other.max);
+        }
+
+
+        /**
+         * @return Number of latencies recorded
+         */
+        public long getCount() {
+            return count;
+        }
+
+
+        /**
+         * @return Mean latency in nanoseconds
+         */
+        public long getMean() {
+            return count == 0 ? 0 : total / count;
+        }
+
+
+        /**
+         * @return Largest latency in nanoseconds
+         */
+        public long getMax() {
+            return max;
+        }
+
+
+        /**
+         * @param fraction
+         *            Between 0 and 1, e.g. 0.99
+         * @return Upper bound in nanoseconds of the bucket holding that
+         *         fraction of the latencies
+         */
+        public long getPercentile(double fraction) {
+            long rank = (long)Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(max, (2L << i) - 1);
+                }
+            }
+            return 0;
+        }
+
+
+        @Override
+        public String toString() {
+            return "count " + count + ", mean " + getMean() + " ns, p50 "
+                + getPercentile(0.5) + " ns, p99 " + getPercentile(0.99)
+                + " ns, max " + max + " ns";
+        }
+
+
+        /**
+         * @return The summary as a JSON object
+         */
+        public String toJson() {
+            return "{\"count\": " + count + ", \"meanNanos\": " + getMean()
+                + ", \"p50Nanos\": " + getPercentile(0.5)
+                + ", \"p99Nanos\": " + getPercentile(0.99)
+                + ", \"maxNanos\": " + max + "}";
+        }
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-14-2023
+ * 
+ * @since 11-14-2023
+ * 
+ *        Background reader for blocks a BufferPool expects to need soon
+ *        Blocks are read into a small set of staging buffers, a miss on
+ *        a staged block takes its bytes instead of going to disk
+ *        When every staging buffer is taken the oldest unused block is
+ *        dropped and counted as a wasted prefetch
+ * 
+ */
+public class Prefetcher implements Runnable {
+    private BlockStore store;
+    private ArrayDeque<Buffer> free;
+    private ArrayDeque<Buffer> requests;
+    // Position -> staged buffer, oldest first, including unfinished reads
+    private LinkedHashMap<Long, Buffer> staged;
+    private HashSet<Buffer> reading;
+    private boolean stopped;
+    private IOException failure;
+    private Thread thread;
+
+    private long prefetchHits;
+    private long wastedPrefetches;
+
+    /**
+     * Constructor, starts the prefetch thread
+     * 
+     * @param store
+     *            Thread safe store holding the data file
+     * @param stagingBuffers
+     *            Number of blocks that may be staged at once
+     * @param bufferSize
+     *            Size of each buffer
+     */
+    public Prefetcher(BlockStore store, int stagingBuffers, int bufferSize) {
+        this.store = store;
+        this.free = new ArrayDeque<Buffer>(stagingBuffers);
+        this.requests = new ArrayDeque<Buffer>(stagingBuffers);
+        this.staged = new LinkedHashMap<Long, Buffer>();
+        this.reading = new HashSet<Buffer>();
+        for (int i = 0; i < stagingBuffers; i++) {
+            free.add(new Buffer(bufferSize));
+        }
+        this.thread = new Thread(this, "prefetch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Asks for a block to be read ahead
+     * 
+     * @param pos
+     *            Absolute position of the block
+     * @return True if a read was queued
+     */
+    public synchronized boolean request(long pos) {
+        if (staged.containsKey(pos)) {
+            return false;
+        }
+        Buffer buff = free.poll();
+        if (buff == null) {
+            buff = dropOldest();
+            if (buff == null) {
+                return false;
+            }
+        }
+        buff.setPos(pos);
+        staged.put(pos, buff);
+        reading.add(buff);
+        requests.add(buff);
+        notifyAll();
+        return true;
+    }
+
+
+    /**
+     * Reuses the oldest staged block that has finished reading
+     * 
+     * @return Its buffer, or null if every staged block is still pending
+     */
+    private Buffer dropOldest() {
+        Iterator<Buffer> it = staged.values().iterator();
+        while (it.hasNext()) {
+            Buffer buff = it.next();
+            if (!reading.contains(buff)) {
+                it.remove();
+                wastedPrefetches++;
+                return buff;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * @param pos
+     *            Absolute position of a block
+     * @return True if the block is staged or being read
+     */
+    public synchronized boolean contains(long pos) {
+        return staged.containsKey(pos);
+    }
+
+
+    /**
+     * Hands a staged block to a pool buffer, waiting if its read is still
+     * running
+     * 
+     * @param pos
+     *            Absolute position of the block
+     * @param target
+     *            Buffer receiving the block's bytes
+     * @return True if the block was staged, false if it must be read
+     * @throws Exception
+     */
+    public synchronized boolean take(long pos, Buffer target)
+        throws Exception {
+        Buffer buff = staged.get(pos);
+        if (buff == null) {
+            return false;
+        }
+        while (reading.contains(buff)) {
+            wait();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        staged.remove(pos);
+        target.swapData(buff);
+        free.add(buff);
+        prefetchHits++;
+        return true;
+    }
+
+
+    /**
+     * Ends the prefetch thread, unused staged blocks count as wasted
+     * 
+     * @throws Exception
+     */
+    public void stop() throws Exception {
+        synchronized (this) {
+            stopped = true;
+            requests.clear();
+            notifyAll();
+        }
+        thread.join();
+        synchronized (this) {
+            wastedPrefetches += staged.size();
+            staged.clear();
+            reading.clear();
+        }
+    }
+
+
+    /**
+     * @return Number of misses served from a staged block
+     */
+    public synchronized long getPrefetchHits() {
+        return prefetchHits;
+    }
+
+
+    /**
+     * @return Number of staged blocks dropped without being used
+     */
+    public synchronized long getWastedPrefetches() {
+        return wastedPrefetches;
+    }
+
+
+    @Override
+    public void run() {
+        while (true) {
+            Buffer buff;
+            synchronized (this) {
+                while (requests.isEmpty() && !stopped) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (stopped) {
+                    return;
+                }
+                buff = requests.poll();
+            }
+            try {
+                store.read(buff.getPos(), buff.getData());
+            }
+            catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                }
+            }
+            synchronized (this) {
+                reading.remove(buff);
+                notifyAll();
+            }
+        }
+    }
+}
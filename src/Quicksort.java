@@ -3,9 +3,17 @@
  * {Project Description Here}
  */
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * The class containing the main method.
@@ -64,27 +72,591 @@ public class Quicksort {
 
 
     /**
+     * Generates a file with the seeded parallel generator, the same seed
+     * always giving the same file
+     *
+     * @param filename
+     *            the name of the file to create/write to
+     * @param blocks
+     *            the size of the file in 4096 byte blocks
+     * @param distribution
+     *            random, ascii, sorted, reverse, organ-pipe, all-equal,
+     *            few-unique, zipf or nearly-sorted
+     * @param seed
+     *            seed of the keys
+     * @param recordSize
+     *            bytes per record, keyed by the big-endian short at its
+     *            start
+     * @throws IOException
+     *             throw if the file is not open and proper
+     */
+    public static void generateFile(
+        String filename,
+        long blocks,
+        String distribution,
+        long seed,
+        int recordSize)
+        throws IOException {
+        new FileGenerator().generateFile(filename, blocks,
+            FileGenerator.Distribution.forName(distribution), seed,
+            new RecordLayout(recordSize, 0, RecordLayout.KeyType.SHORT,
+                ByteOrder.BIG_ENDIAN));
+    }
+
+
+    /**
+     * Looks up an optional "--name=value" parameter following the
+     * required ones
+     * 
+     * @param args
+     *            Command line parameters
+     * @param name
+     *            Option name
+     * @param defaultValue
+     *            Value used when the option is absent
+     * @return Option value
+     */
+    public static String getOption(
+        String[] args,
+        String name,
+        String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].startsWith(prefix)) {
+                return args[i].substring(prefix.length());
+            }
+        }
+        return defaultValue;
+    }
+
+
+    /**
+     * Usage: Quicksort {data-file} {numb-buffers} {stat-file} [options]
+     * 
+     * Options:
+     * --store=raf|channel|mmap selects how blocks reach the disk
+     * --engine=auto|quick|memory|copy|tag|parallel|merge|counting selects
+     * the sort engine, auto (the default) picks memory when the file fits
+     * the memory budget and quick otherwise, tag sorts keys and record
+     * numbers then moves each record once
+     * --memory=bytes memory budget, the pool's buffers by default
+     * --output=file writes the sorted records to another file through
+     * the copy engine, a pipeline of reader, sort and writer stages
+     * --threads=n[,n...] thread counts for the parallel engine
+     * --policy=lru|clock|2q|arc|lru-k replacement policy of the pool
+     * --blocksize=n bytes per block, 4096 by default
+     * --writebehind=n writes up to n evicted dirty blocks in the background
+     * --coalesce=n writes up to n dirty neighbours with an evicted block
+     * --prefetch=n reads n blocks ahead of sequential access
+     * --partialwrites=f writes back only the changed bytes of a block,
+     * unless they span more than fraction f of it
+     * --inmemory=on|off sorts ranges that fit in the pool in memory
+     * --pivot=middle|median3|ninther|sampled how pivots are picked
+     * --layout=size[,type[,offset[,order]]] record layout, see RecordLayout
+     * --stats=text|json format of the stat file
+     * --verify=on|off hashes the records before sorting, then checks the
+     * sorted file is in order and holds the same records
+     * --checkpoint=bytes journals the quick engine's pending ranges each
+     * time about that many bytes of ranges are sorted, a later run with
+     * the option resumes from the last checkpoint, see SortJournal
+     * --batch=on sorts every file of the directory {data-file}, or every
+     * file it lists one per line, with {numb-buffers} shared by all of
+     * them, see BatchSort
+     * --jobs=n files sorted at once in batch mode, twice the processors
+     * by default so one job's I/O overlaps another's sorting
+     * 
      * @param args
      *            Command line parameters.
      * @throws Exception
      */
     public static void main(String[] args) throws Exception {
-        int[] cacheHits = new int[] { 0 };
-        int[] diskReads = new int[] { 0 };
-        int[] diskWrites = new int[] { 0 };
+        if (getOption(args, "batch", "off").equals("on")) {
+            runBatch(args);
+            return;
+        }
+        String output = getOption(args, "output", null);
+        String engine = getOption(args, "engine", output == null
+            ? "auto"
+            : "copy");
+        if (engine.equals("copy") != (output != null)) {
+            throw new IllegalArgumentException("--output=file and"
+                + " --engine=copy go together");
+        }
+        RecordLayout layout = RecordLayout.parse(getOption(args, "layout",
+            "4"));
+        long checkpoint = Long.parseLong(getOption(args, "checkpoint", "0"));
+        if (checkpoint > 0 && engine.equals("auto")) {
+            engine = "quick";
+        }
+        if (checkpoint > 0 && !engine.equals("quick")) {
+            throw new IllegalArgumentException("--checkpoint needs the quick"
+                + " engine");
+        }
+        if (engine.equals("auto")) {
+            engine = chooseEngine(args, layout);
+        }
+        if (checkpoint > 0) {
+            // An interrupted run is undone before anything reads the file
+            SortJournal.recover(args[0], getOption(args, "store", "raf"));
+        }
+        if (!layout.isDefault() && !engine.equals("quick") && !engine.equals(
+            "memory") && !engine.equals("tag")) {
+            throw new IllegalArgumentException("Only the quick, memory and"
+                + " tag engines sort records of layout " + layout);
+        }
+        boolean verify = getOption(args, "verify", "off").equals("on");
+        CheckFile checker = new CheckFile();
+        long hash = verify ? checker.hashFile(args[0], layout) : 0;
+        if (engine.equals("parallel")) {
+            runParallel(args);
+        }
+        else if (engine.equals("merge") || engine.equals("counting")) {
+            runStreaming(args, engine);
+        }
+        else if (engine.equals("quick")) {
+            runQuick(args, layout);
+        }
+        else if (engine.equals("memory")) {
+            runMemory(args, layout);
+        }
+        else if (engine.equals("copy")) {
+            runCopy(args, output);
+        }
+        else if (engine.equals("tag")) {
+            runTag(args, layout);
+        }
+        else {
+            throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+        String sorted = output == null ? args[0] : output;
+        if (verify && !checker.checkFile(sorted, layout, hash)) {
+            throw new IllegalStateException(sorted + " is out of order or"
+                + " lost or duplicated records while sorting");
+        }
+    }
+
+
+    /**
+     * Picks the memory engine when the whole file fits the memory budget,
+     * twice over for 4 byte records which are also sorted into an int[]
+     * 
+     * @param args
+     *            Command line parameters.
+     * @param layout
+     *            Layout of the records
+     * @return "memory" or "quick"
+     */
+    private static String chooseEngine(String[] args, RecordLayout layout) {
+        long budget = Long.parseLong(getOption(args, "memory", String.valueOf(
+            (long)Integer.parseInt(args[1]) * getBlockSize(args))));
+        long size = new File(args[0]).length();
+        if (layout.isDefault()) {
+            if (size / BufferPool.RECORD_SIZE > StubbedBufferPool.MAX_PACKED) {
+                return "quick";
+            }
+            budget /= 2;
+        }
+        return size <= budget ? "memory" : "quick";
+    }
+
+
+    /**
+     * Reads the whole file, sorts it in memory and writes it back
+     * 4 byte records are sorted by a parallel counting sort on their key,
+     * other layouts by Sort working through the file in memory
+     * 
+     * @param args
+     *            Command line parameters.
+     * @param layout
+     *            Layout of the records
+     * @throws Exception
+     */
+    private static void runMemory(String[] args, RecordLayout layout)
+        throws Exception {
+        PoolStats stats = new PoolStats();
         long startTime = System.currentTimeMillis();
 
-        int numBuffers = Integer.parseInt(args[1]);
-        BufferPool buffPool = new BufferPool(numBuffers, 4096, args[0],
-            cacheHits, diskReads, diskWrites);
+        StubbedBufferPool memory = new StubbedBufferPool(args[0],
+            getBlockSize(args), stats);
+        if (layout.isDefault()) {
+            memory.sortPacked();
+        }
+        else {
+            Sort sort = new Sort(layout);
+            sort.setPivotStrategy(getPivotStrategy(getOption(args, "pivot",
+                "median3")));
+            int recordSize = layout.getRecordSize();
+            sort.quickSort(memory, 0, (memory.getSize() / recordSize - 1)
+                * recordSize);
+        }
+        memory.flushAll();
+
+        long executionTime = System.currentTimeMillis() - startTime;
+        Map<String, Object> extras = new LinkedHashMap<String, Object>();
+        extras.put("Engine", "memory");
+        reportStats(stats, executionTime, extras, getOption(args, "stats",
+            "text").equals("json"), args[2]);
+    }
+
+
+    /**
+     * Sorts the data file into another file, leaving the data file as it
+     * is, and reports how long each pipeline stage was busy and idle
+     * 
+     * @param args
+     *            Command line parameters.
+     * @param output
+     *            File receiving the sorted records
+     * @throws Exception
+     */
+    private static void runCopy(String[] args, String output)
+        throws Exception {
+        PoolStats stats = new PoolStats();
+        long startTime = System.currentTimeMillis();
+
+        CopySort copy = new CopySort(args[0], output, Integer.parseInt(
+            args[1]), getBlockSize(args), stats);
+        copy.sort();
+
+        long executionTime = System.currentTimeMillis() - startTime;
+        Map<String, Object> extras = new LinkedHashMap<String, Object>();
+        extras.put("Engine", "copy");
+        String[] names = { "Reader", "Sort", "Writer" };
+        CopySort.Stage[] stages = { copy.getReader(), copy.getSorter(), copy
+            .getWriter() };
+        for (int i = 0; i < stages.length; i++) {
+            extras.put(names[i] + " Busy Millis", stages[i].getBusy()
+                / 1000000);
+            extras.put(names[i] + " Idle Millis", stages[i].getIdle()
+                / 1000000);
+        }
+        reportStats(stats, executionTime, extras, getOption(args, "stats",
+            "text").equals("json"), args[2]);
+    }
+
 
-        Sort sort = new Sort();
-        sort.quicksort(buffPool, 0, (buffPool.getSize()) - 4);
+    /**
+     * Sorts a batch of files concurrently under one buffer budget and
+     * reports each file's throughput and the batch's
+     * 
+     * @param args
+     *            Command line parameters.
+     * @throws Exception
+     */
+    private static void runBatch(String[] args) throws Exception {
+        int jobs = Integer.parseInt(getOption(args, "jobs", String.valueOf(2
+            * Runtime.getRuntime().availableProcessors())));
+        BatchSort batch = new BatchSort(BatchSort.listFiles(args[0]), Integer
+            .parseInt(args[1]), getBlockSize(args), jobs, RecordLayout.parse(
+                getOption(args, "layout", "4")), getOption(args, "store",
+                    "raf"));
+        batch.sort();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(args[2]))) {
+            batch.printText(writer);
+        }
+    }
+
+
+    /**
+     * Sorts the file through one BufferPool
+     * 
+     * @param args
+     *            Command line parameters.
+     * @param layout
+     *            Layout of the records
+     * @throws Exception
+     */
+    private static void runQuick(String[] args, RecordLayout layout)
+        throws Exception {
+        PoolStats stats = new PoolStats();
+        long startTime = System.currentTimeMillis();
+
+        BlockStore store = BlockStore.open(getOption(args, "store", "raf"),
+            args[0]);
+        long checkpoint = Long.parseLong(getOption(args, "checkpoint", "0"));
+        SortJournal journal = null;
+        if (checkpoint > 0) {
+            journal = new SortJournal(args[0], store, getBlockSize(args),
+                layout);
+            store = journal.getStore();
+        }
+        BufferPool buffPool = openPool(args, store, stats);
+        Sort sort = new Sort(layout);
+        if (!getOption(args, "inmemory", "on").equals("off")) {
+            sort.setInMemoryThreshold(buffPool);
+        }
+        sort.setPivotStrategy(getPivotStrategy(getOption(args, "pivot",
+            "median3")));
+        if (journal != null) {
+            journal.attach(buffPool);
+            sort.setCheckpoint(journal, checkpoint);
+        }
+        int recordSize = layout.getRecordSize();
+        if (journal != null && journal.getRanges() != null) {
+            sort.resume(buffPool, journal.getRanges());
+        }
+        else {
+            sort.quickSort(buffPool, 0, (buffPool.getSize() / recordSize - 1)
+                * recordSize);
+        }
         buffPool.flushAll();
+        if (journal != null) {
+            journal.finish();
+        }
 
         long endTime = System.currentTimeMillis();
         long executionTime = endTime - startTime;
-        reportMetrics(cacheHits, diskReads, diskWrites, executionTime, args[2]);
+        Map<String, Object> extras = poolExtras(args, buffPool);
+        extras.put("Peak Stack Depth", sort.getPeakDepth());
+        extras.put("Bytes Moved", sort.getBytesMoved());
+        if (journal != null) {
+            extras.put("Resumed", journal.getRanges() != null);
+            extras.put("Checkpoints", journal.getCheckpoints());
+            extras.put("Undo Blocks", journal.getLoggedBlocks());
+        }
+        reportStats(stats, executionTime, extras, getOption(args, "stats",
+            "text").equals("json"), args[2]);
+    }
+
+
+    /**
+     * Sorts the file by its tags through one BufferPool, reporting the
+     * bytes moved the same way the quick engine does
+     * 
+     * @param args
+     *            Command line parameters.
+     * @param layout
+     *            Layout of the records
+     * @throws Exception
+     */
+    private static void runTag(String[] args, RecordLayout layout)
+        throws Exception {
+        PoolStats stats = new PoolStats();
+        long startTime = System.currentTimeMillis();
+
+        BufferPool buffPool = openPool(args, BlockStore.open(getOption(args,
+            "store", "raf"), args[0]), stats);
+        TagSort sort = new TagSort(layout);
+        sort.sort(buffPool);
+        buffPool.flushAll();
+
+        long executionTime = System.currentTimeMillis() - startTime;
+        Map<String, Object> extras = poolExtras(args, buffPool);
+        extras.put("Engine", "tag");
+        extras.put("Bytes Moved", sort.getBytesMoved());
+        extras.put("Permutation Cycles", sort.getCycles());
+        reportStats(stats, executionTime, extras, getOption(args, "stats",
+            "text").equals("json"), args[2]);
+    }
+
+
+    /**
+     * Builds a BufferPool over the data file set up by the pool options
+     * 
+     * @param args
+     *            Command line parameters.
+     * @param store
+     *            Store holding the data file
+     * @param stats
+     *            Counters the pool updates
+     * @return The pool
+     * @throws Exception
+     */
+    private static BufferPool openPool(
+        String[] args,
+        BlockStore store,
+        PoolStats stats)
+        throws Exception {
+        int numBuffers = Integer.parseInt(args[1]);
+        BufferPool.ReplacementPolicy policy = BufferPool.ReplacementPolicy
+            .forName(getOption(args, "policy", "lru"), numBuffers);
+        BufferPool buffPool = new BufferPool(numBuffers, getBlockSize(args),
+            store, policy, stats);
+        int writeBehind = Integer.parseInt(getOption(args, "writebehind",
+            "0"));
+        if (writeBehind > 0) {
+            buffPool.enableWriteBehind(writeBehind);
+        }
+        int coalesce = Integer.parseInt(getOption(args, "coalesce", "0"));
+        if (coalesce > 0) {
+            buffPool.enableCoalescing(coalesce);
+        }
+        int prefetch = Integer.parseInt(getOption(args, "prefetch", "0"));
+        if (prefetch > 0) {
+            buffPool.enablePrefetch(prefetch);
+        }
+        double partial = Double.parseDouble(getOption(args, "partialwrites",
+            "0"));
+        if (partial > 0) {
+            buffPool.enablePartialWrites(partial);
+        }
+        return buffPool;
+    }
+
+
+    /**
+     * @param args
+     *            Command line parameters.
+     * @param buffPool
+     *            Pool opened by openPool
+     * @return Extra stats for the pool options that were given
+     */
+    private static Map<String, Object> poolExtras(
+        String[] args,
+        BufferPool buffPool) {
+        Map<String, Object> extras = new LinkedHashMap<String, Object>();
+        if (getOption(args, "policy", null) != null) {
+            extras.put("Replacement Policy", buffPool.getPolicyName());
+        }
+        if (Integer.parseInt(getOption(args, "writebehind", "0")) > 0) {
+            extras.put("Written Behind", buffPool.getWrittenBehind());
+        }
+        if (Integer.parseInt(getOption(args, "prefetch", "0")) > 0) {
+            extras.put("Prefetch Hits", buffPool.getPrefetchHits());
+            extras.put("Wasted Prefetches", buffPool.getWastedPrefetches());
+        }
+        return extras;
+    }
+
+
+    /**
+     * @param args
+     *            Command line parameters.
+     * @return Bytes per block, a multiple of the 4 byte record
+     */
+    private static int getBlockSize(String[] args) {
+        int blockSize = Integer.parseInt(getOption(args, "blocksize", "4096"));
+        if (blockSize <= 0 || blockSize % BufferPool.RECORD_SIZE != 0) {
+            throw new IllegalArgumentException("Block size must be a positive"
+                + " multiple of " + BufferPool.RECORD_SIZE + ": " + blockSize);
+        }
+        return blockSize;
+    }
+
+
+    /**
+     * @param name
+     *            Value of the pivot option
+     * @return The matching pivot strategy
+     */
+    private static Sort.PivotStrategy getPivotStrategy(String name) {
+        switch (name) {
+            case "middle":
+                return Sort.PivotStrategy.MIDDLE;
+            case "median3":
+                return Sort.PivotStrategy.MEDIAN_OF_3;
+            case "ninther":
+                return Sort.PivotStrategy.NINTHER;
+            case "sampled":
+                return Sort.PivotStrategy.SAMPLED;
+            default:
+                throw new IllegalArgumentException("Unknown pivot: " + name);
+        }
+    }
+
+
+    /**
+     * Runs one of the engines that stream the file sequentially
+     * 
+     * @param args
+     *            Command line parameters.
+     * @param engine
+     *            "merge" or "counting"
+     * @throws Exception
+     */
+    private static void runStreaming(String[] args, String engine)
+        throws Exception {
+        PoolStats stats = new PoolStats();
+        long startTime = System.currentTimeMillis();
+
+        String storeKind = getOption(args, "store", "raf");
+        int numBuffers = Integer.parseInt(args[1]);
+        if (engine.equals("merge")) {
+            new MergeSort(args[0], storeKind, numBuffers, getBlockSize(args),
+                stats).sort();
+        }
+        else {
+            new DistributionSort(args[0], storeKind, numBuffers,
+                getBlockSize(args), stats).sort();
+        }
+
+        long executionTime = System.currentTimeMillis() - startTime;
+        Map<String, Object> extras = new LinkedHashMap<String, Object>();
+        extras.put("Engine", engine);
+        reportStats(stats, executionTime, extras, getOption(args, "stats",
+            "text").equals("json"), args[2]);
+    }
+
+
+    /**
+     * Runs the fork-join engine once per requested thread count
+     * Every run after the first starts again from a copy of the unsorted
+     * file, so speedups are measured on the same input
+     * With --stats=json and several thread counts the stat file holds an
+     * array of one object per run
+     * 
+     * @param args
+     *            Command line parameters.
+     * @throws Exception
+     */
+    private static void runParallel(String[] args) throws Exception {
+        String[] counts = getOption(args, "threads", String.valueOf(Runtime
+            .getRuntime().availableProcessors())).split(",");
+        int numBuffers = Integer.parseInt(args[1]);
+        String storeKind = getOption(args, "store", "raf");
+        boolean json = getOption(args, "stats", "text").equals("json");
+
+        Path data = Paths.get(args[0]);
+        Path original = Paths.get(args[0] + ".orig");
+        if (counts.length > 1) {
+            Files.copy(data, original, StandardCopyOption.REPLACE_EXISTING);
+        }
+        try (PrintWriter writer = new PrintWriter(new FileWriter(args[2]))) {
+            if (json && counts.length > 1) {
+                writer.println("[");
+            }
+            long baseTime = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (i > 0) {
+                    Files.copy(original, data,
+                        StandardCopyOption.REPLACE_EXISTING);
+                }
+                int threads = Integer.parseInt(counts[i].trim());
+                PoolStats stats = new PoolStats();
+                long startTime = System.currentTimeMillis();
+
+                new ParallelSort(args[0], storeKind, numBuffers,
+                    getBlockSize(args), stats).sort(threads);
+
+                long executionTime = System.currentTimeMillis() - startTime;
+                if (i == 0) {
+                    baseTime = executionTime;
+                }
+                double speedup = baseTime / (double)Math.max(1,
+                    executionTime);
+                Map<String, Object> info = new LinkedHashMap<String, Object>();
+                info.put("Engine", "parallel");
+                info.put("Threads", threads);
+                info.put("Speedup", Math.round(speedup * 100) / 100.0);
+                if (json) {
+                    if (i > 0) {
+                        writer.println(",");
+                    }
+                    stats.printJson(writer, executionTime, info);
+                }
+                else {
+                    writer.println("Threads: " + threads);
+                    stats.printText(writer, executionTime);
+                    writer.printf("Speedup: %.2f%n", speedup);
+                }
+            }
+            if (json && counts.length > 1) {
+                writer.println("]");
+            }
+        }
+        finally {
+            Files.deleteIfExists(original);
+        }
     }
 
 
@@ -120,4 +692,40 @@ public class Quicksort {
         }
     }
 
+
+    /**
+     * Prints the pool's counters, then further values by name
+     * 
+     * @param stats
+     *            the pool's counters
+     * @param executionTime
+     *            total time elapsed
+     * @param extras
+     *            further values to print, in order
+     * @param json
+     *            true for one JSON object instead of text lines
+     * @param filePath
+     *            file path to print metrics
+     */
+    public static void reportStats(
+        PoolStats stats,
+        long executionTime,
+        Map<String, Object> extras,
+        boolean json,
+        String filePath) {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
+            if (json) {
+                stats.printJson(writer, executionTime, extras);
+                return;
+            }
+            stats.printText(writer, executionTime);
+            for (Map.Entry<String, Object> extra : extras.entrySet()) {
+                writer.println(extra.getKey() + ": " + extra.getValue());
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
 }
@@ -1,3 +1,10 @@
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
 import student.TestCase;
 
 /**
@@ -175,4 +182,1117 @@ public class QuicksortTest extends TestCase {
         Quicksort.main(args);
         assertTrue(fileChecker.checkFile("input.txt"));
     }
+
+
+    /**
+     * Parallel engine
+     * 100 Blocks
+     * 8 Buffers shared by 4 threads
+     * 
+     * @throws Exception
+     */
+    public void testParallelBinary() throws Exception {
+        String[] args = new String[5];
+        args[0] = "input.txt";
+        args[1] = "8";
+        args[2] = "statFile.txt";
+        args[3] = "--engine=parallel";
+        args[4] = "--threads=4";
+        Quicksort.generateFile("input.txt", "100", 'b');
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt"));
+    }
+
+
+    /**
+     * Parallel engine on files ending in a partial record, whose tail
+     * is left as it was
+     * 12290, 102401 and 409603 bytes
+     * 8 Buffers shared by 4 threads
+     * 
+     * @throws Exception
+     */
+    public void testParallelKeepsTail() throws Exception {
+        int[] sizes = { 12290, 102401, 409603 };
+        for (int size : sizes) {
+            Quicksort.generateFile("input.txt", String.valueOf(size / 4096
+                + 1), 'b');
+            try (RandomAccessFile file = new RandomAccessFile("input.txt",
+                "rw")) {
+                file.setLength(size);
+            }
+            byte[] before = Files.readAllBytes(Paths.get("input.txt"));
+            String[] args = new String[5];
+            args[0] = "input.txt";
+            args[1] = "8";
+            args[2] = "statFile.txt";
+            args[3] = "--engine=parallel";
+            args[4] = "--threads=4";
+            Quicksort.main(args);
+            assertTrue(fileChecker.checkFile("input.txt"));
+            byte[] after = Files.readAllBytes(Paths.get("input.txt"));
+            assertEquals(size, after.length);
+            int tail = size / 4 * 4;
+            assertTrue(Arrays.equals(Arrays.copyOfRange(before, tail, size),
+                Arrays.copyOfRange(after, tail, size)));
+        }
+    }
+
+
+    /**
+     * External merge sort engine
+     * 100 Blocks
+     * 3 Buffers, so runs are merged over more than one pass
+     * 
+     * @throws Exception
+     */
+    public void testMergeBinary() throws Exception {
+        String[] args = new String[4];
+        args[0] = "input.txt";
+        args[1] = "3";
+        args[2] = "statFile.txt";
+        args[3] = "--engine=merge";
+        Quicksort.generateFile("input.txt", "100", 'b');
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt"));
+    }
+
+
+    /**
+     * A pool whose bytes overflow an int sorts the file as one run
+     * 20 Blocks
+     * 2^20 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testMergeLargePool() throws Exception {
+        Quicksort.generateFile("input.txt", "20", 'b');
+        PoolStats stats = new PoolStats();
+        new MergeSort("input.txt", "raf", 1 << 20, 4096, stats).sort();
+        assertTrue(fileChecker.checkFile("input.txt"));
+        assertEquals(20, stats.getReads());
+        assertEquals(20, stats.getWrites());
+    }
+
+
+    /**
+     * Counting sort engine
+     * 100 Blocks
+     * 10 Buffers, so keys are scattered over several passes
+     * 
+     * @throws Exception
+     */
+    public void testCountingBinary() throws Exception {
+        String[] args = new String[4];
+        args[0] = "input.txt";
+        args[1] = "10";
+        args[2] = "statFile.txt";
+        args[3] = "--engine=counting";
+        Quicksort.generateFile("input.txt", "100", 'b');
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt"));
+    }
+
+
+    /**
+     * Bytes after the last whole record are kept by the streaming
+     * engines
+     * 20 Blocks and 3 bytes
+     * 100 Buffers, so the counting engine scatters rather than merges
+     * 
+     * @throws Exception
+     */
+    public void testStreamingKeepsTail() throws Exception {
+        String[] engines = { "counting", "merge" };
+        for (String engine : engines) {
+            Quicksort.generateFile("input.txt", "20", 'b');
+            try (RandomAccessFile file = new RandomAccessFile("input.txt",
+                "rw")) {
+                file.seek(file.length());
+                file.write(new byte[] { 7, 8, 9 });
+            }
+            String[] args = new String[4];
+            args[0] = "input.txt";
+            args[1] = "100";
+            args[2] = "statFile.txt";
+            args[3] = "--engine=" + engine;
+            Quicksort.main(args);
+            assertTrue(fileChecker.checkFile("input.txt"));
+            byte[] sorted = Files.readAllBytes(Paths.get("input.txt"));
+            assertEquals(20 * 4096 + 3, sorted.length);
+            assertEquals(7, sorted[20 * 4096]);
+            assertEquals(9, sorted[20 * 4096 + 2]);
+        }
+    }
+
+
+    /**
+     * The counting engine sizes its write buffers to the file when the
+     * budget dwarfs it
+     * 10 Blocks
+     * 2000000 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testCountingLargeBudget() throws Exception {
+        Quicksort.generateFile("input.txt", "10", 'b');
+        long hash = fileChecker.hashFile("input.txt", RecordLayout.DEFAULT);
+        String[] args = new String[4];
+        args[0] = "input.txt";
+        args[1] = "2000000";
+        args[2] = "statFile.txt";
+        args[3] = "--engine=counting";
+        Quicksort.main(args);
+        assertEquals(40960, new File("input.txt").length());
+        assertTrue(fileChecker.checkFile("input.txt"));
+        assertEquals(hash, fileChecker.hashFile("input.txt",
+            RecordLayout.DEFAULT));
+    }
+
+
+    /**
+     * Every block store sorts the file through the quick engine
+     * 100 Blocks
+     * 10 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testBlockStores() throws Exception {
+        String[] stores = { "raf", "channel", "mmap" };
+        for (String store : stores) {
+            Quicksort.generateFile("input.txt", "100", 'b');
+            long hash = fileChecker.hashFile("input.txt",
+                RecordLayout.DEFAULT);
+            String[] args = new String[5];
+            args[0] = "input.txt";
+            args[1] = "10";
+            args[2] = "statFile.txt";
+            args[3] = "--store=" + store;
+            args[4] = "--engine=quick";
+            Quicksort.main(args);
+            assertTrue(fileChecker.checkFile("input.txt",
+                RecordLayout.DEFAULT, hash));
+        }
+    }
+
+
+    /**
+     * A file spanning many mapping windows, whose blocks straddle the
+     * window edges, is sorted and then grown past its end
+     * 100 Blocks
+     * 10000 byte windows
+     * 
+     * @throws Exception
+     */
+    public void testMappedWindows() throws Exception {
+        Quicksort.generateFile("input.txt", "100", 'b');
+        long hash = fileChecker.hashFile("input.txt", RecordLayout.DEFAULT);
+        BufferPool pool = new BufferPool(10, 4096, new MappedBlockStore(
+            "input.txt", 10000), BufferPool.ReplacementPolicy.forName("lru",
+                10), new PoolStats());
+        new Sort().quickSort(pool, 0, pool.getSize() - 4);
+        pool.flushAll();
+        assertTrue(fileChecker.checkFile("input.txt", RecordLayout.DEFAULT,
+            hash));
+
+        MappedBlockStore store = new MappedBlockStore("input.txt", 10000);
+        byte[] sorted = new byte[409600];
+        assertEquals(409600, store.read(0, sorted, 0, sorted.length));
+        byte[] grown = new byte[6000];
+        Arrays.fill(grown, (byte)5);
+        store.write(409600 - 1000, grown, 0, grown.length);
+        assertEquals(409600 + 5000, store.length());
+        byte[] back = new byte[7000];
+        assertEquals(7000, store.read(409600 - 2000, back, 0, back.length));
+        assertEquals(sorted[409600 - 2000], back[0]);
+        assertEquals(5, back[1000]);
+        assertEquals(5, back[6999]);
+        assertEquals(-1, store.read(409600 + 5000, back, 0, 1));
+        store.close();
+        assertEquals(409600 + 5000, new File("input.txt").length());
+    }
+
+
+    /**
+     * Every replacement policy sorts and reports itself, and the scan
+     * resistant ones keep a hot set that LRU loses to a one-time scan
+     * 20 Blocks, 3 Buffers to sort
+     * 200 Blocks, 10 Buffers for the scan
+     * 
+     * @throws Exception
+     */
+    public void testReplacementPolicies() throws Exception {
+        String[] policies = { "lru", "clock", "2q", "arc", "lru-2" };
+        long[] hotHits = new long[policies.length];
+        for (int p = 0; p < policies.length; p++) {
+            String[] args = new String[4];
+            args[0] = "input.txt";
+            args[1] = "3";
+            args[2] = "statFile.txt";
+            args[3] = "--policy=" + policies[p];
+            Quicksort.generateFile("input.txt", "20", 'b');
+            Quicksort.main(args);
+            assertTrue(fileChecker.checkFile("input.txt"));
+            String stats = new String(Files.readAllBytes(Paths.get(
+                "statFile.txt")));
+            assertTrue(stats.contains("Replacement Policy: "
+                + BufferPool.ReplacementPolicy.forName(policies[p], 3)
+                    .getName()));
+
+            // Each round reads 4 hot blocks twice, then 8 blocks never
+            // read again, 12 blocks through 10 buffers, so LRU only hits
+            // the second read of the hot blocks
+            Quicksort.generateFile("input.txt", "200", 'b');
+            PoolStats counts = new PoolStats();
+            BufferPool pool = new BufferPool(10, 4096, BlockStore.open("raf",
+                "input.txt"), BufferPool.ReplacementPolicy.forName(
+                    policies[p], 10), counts);
+            for (int round = 0; round < 20; round++) {
+                for (int hot = 0; hot < 8; hot++) {
+                    pool.readRecord(hot % 4 * 4096);
+                }
+                for (int scan = 0; scan < 8; scan++) {
+                    pool.readRecord((4 + round * 8 + scan) * 4096);
+                }
+            }
+            pool.flushAll();
+            hotHits[p] = counts.getHits();
+        }
+        assertEquals(20 * 4, hotHits[0]);
+        assertTrue(hotHits[2] > hotHits[0]);
+        assertTrue(hotHits[3] > hotHits[0]);
+        assertTrue(hotHits[4] > hotHits[0]);
+    }
+
+
+    /**
+     * Write-behind eviction
+     * 100 Blocks
+     * 3 Buffers, 2 writes in flight
+     * 
+     * @throws Exception
+     */
+    public void testWriteBehindBinary() throws Exception {
+        String[] args = new String[4];
+        args[0] = "input.txt";
+        args[1] = "3";
+        args[2] = "statFile.txt";
+        args[3] = "--writebehind=2";
+        Quicksort.generateFile("input.txt", "100", 'b');
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt"));
+        long written = statValue("Written Behind");
+        assertTrue(written > 0);
+        assertTrue(written <= statValue("Dirty Evictions"));
+    }
+
+
+    /**
+     * A dirty block requested again while queued for write-behind is
+     * counted once, as a hit, and not also as a miss
+     * 
+     * @throws Exception
+     */
+    public void testWriteBehindReclaim() throws Exception {
+        Quicksort.generateFile("input.txt", "100", 'b');
+        PoolStats stats = new PoolStats();
+        BufferPool pool = new BufferPool(1, 4096, BlockStore.open("raf",
+            "input.txt"), BufferPool.ReplacementPolicy.forName("lru", 1),
+            stats);
+        pool.enableWriteBehind(2);
+        int record = pool.readRecord(0);
+        pool.writeRecord(0, pool.readRecord(4));
+        pool.writeRecord(4, record);
+        pool.readRecord(4096);
+        pool.readRecord(0);
+        assertEquals(6, stats.getHits() + stats.getMisses());
+        pool.flushAll();
+    }
+
+
+    /**
+     * Read-ahead together with write-behind
+     * 100 Blocks
+     * 4 Buffers, 4 blocks read ahead
+     * 
+     * @throws Exception
+     */
+    public void testPrefetchBinary() throws Exception {
+        String[] args = new String[5];
+        args[0] = "input.txt";
+        args[1] = "4";
+        args[2] = "statFile.txt";
+        args[3] = "--prefetch=4";
+        args[4] = "--writebehind=2";
+        Quicksort.generateFile("input.txt", "100", 'b');
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt"));
+        // Partitioning scans inward from both ends, two streams
+        assertTrue(statValue("Prefetch Hits") > 0);
+        assertTrue(statValue("Prefetch Hits") <= statValue("Cache Misses"));
+    }
+
+
+    /**
+     * Record by record path with the in-memory path turned off
+     * 100 Blocks
+     * 10 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testInMemoryOff() throws Exception {
+        String[] args = new String[4];
+        args[0] = "input.txt";
+        args[1] = "10";
+        args[2] = "statFile.txt";
+        args[3] = "--inmemory=off";
+        Quicksort.generateFile("input.txt", "100", 'b');
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt"));
+    }
+
+
+    /**
+     * Ninther pivots on the record by record path
+     * 100 Blocks
+     * 10 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testNintherPivot() throws Exception {
+        String[] args = new String[5];
+        args[0] = "input.txt";
+        args[1] = "10";
+        args[2] = "statFile.txt";
+        args[3] = "--inmemory=off";
+        args[4] = "--pivot=ninther";
+        Quicksort.generateFile("input.txt", "100", 'b');
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt"));
+    }
+
+
+    /**
+     * Heapsort fallback on its own
+     * 20 Blocks
+     * 5 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testHeapSort() throws Exception {
+        int[] cacheHits = new int[] { 0 };
+        int[] diskReads = new int[] { 0 };
+        int[] diskWrites = new int[] { 0 };
+        Quicksort.generateFile("input.txt", "20", 'b');
+        BufferPool pool = new BufferPool(5, 4096, "input.txt", cacheHits,
+            diskReads, diskWrites);
+        new Sort().heapSort(pool, 0, pool.getSize() - BufferPool.RECORD_SIZE);
+        pool.flushAll();
+        assertTrue(fileChecker.checkFile("input.txt"));
+    }
+
+
+    /**
+     * Work stack stays within log2 of the record count
+     * 50 Blocks
+     * 4 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testPeakStackDepth() throws Exception {
+        int[] cacheHits = new int[] { 0 };
+        int[] diskReads = new int[] { 0 };
+        int[] diskWrites = new int[] { 0 };
+        Quicksort.generateFile("input.txt", "50", 'a');
+        BufferPool pool = new BufferPool(4, 4096, "input.txt", cacheHits,
+            diskReads, diskWrites);
+        Sort sort = new Sort();
+        long records = pool.getSize() / BufferPool.RECORD_SIZE;
+        sort.quickSort(pool, 0, pool.getSize() - BufferPool.RECORD_SIZE);
+        pool.flushAll();
+        assertTrue(fileChecker.checkFile("input.txt"));
+        assertTrue(sort.getPeakDepth() > 0);
+        assertTrue(sort.getPeakDepth() <= 64 - Long.numberOfLeadingZeros(
+            records));
+    }
+
+
+    /**
+     * Positions past 2 GB in a sparse 3 GB file
+     * Sorts 64 random blocks straddling the 2 GB mark through 10 buffers
+     * 
+     * @throws Exception
+     */
+    public void testSparseFileOver2GB() throws Exception {
+        long size = 3L << 30;
+        long left = (1L << 31) - 32 * 4096;
+        long right = (1L << 31) + 32 * 4096 - BufferPool.RECORD_SIZE;
+        File file = new File("sparse.bin");
+        try {
+            byte[] block = new byte[4096];
+            Random random = new Random(13);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(size);
+                raf.seek(left);
+                for (int i = 0; i < 64; i++) {
+                    random.nextBytes(block);
+                    raf.write(block);
+                }
+            }
+
+            int[] cacheHits = new int[] { 0 };
+            int[] diskReads = new int[] { 0 };
+            int[] diskWrites = new int[] { 0 };
+            BufferPool pool = new BufferPool(10, 4096, "sparse.bin",
+                cacheHits, diskReads, diskWrites);
+            assertEquals(size, pool.getSize());
+            new Sort().quickSort(pool, left, right);
+            pool.flushAll();
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                assertEquals(size, raf.length());
+                raf.seek(left);
+                short prev = raf.readShort();
+                raf.readShort();
+                for (long pos = left + 4; pos <= right; pos += 4) {
+                    short key = raf.readShort();
+                    raf.readShort();
+                    assertTrue(prev <= key);
+                    prev = key;
+                }
+                assertEquals(0, raf.readInt());
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+
+    /**
+     * 16 byte records keyed by a little-endian long at offset 8
+     * 50 Blocks
+     * 6 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testLongKeyLayout() throws Exception {
+        RecordLayout layout = RecordLayout.parse("16,long,8,little");
+        new FileGenerator().generateFile("input.txt", 50, layout);
+        String[] args = new String[4];
+        args[0] = "input.txt";
+        args[1] = "6";
+        args[2] = "statFile.txt";
+        args[3] = "--layout=16,long,8,little";
+        assertFalse(fileChecker.checkFile("input.txt", layout));
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt", layout));
+    }
+
+
+    /**
+     * 100 byte records keyed by an unsigned int, records and keys cross
+     * block boundaries
+     * 50 Blocks
+     * 6 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testUnsignedKeyLayout() throws Exception {
+        RecordLayout layout = RecordLayout.parse("100,uint,94");
+        new FileGenerator().generateFile("input.txt", 50, layout);
+        String[] args = new String[5];
+        args[0] = "input.txt";
+        args[1] = "6";
+        args[2] = "statFile.txt";
+        args[3] = "--layout=100,uint,94";
+        args[4] = "--inmemory=off";
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt", layout));
+        assertFalse(fileChecker.checkFile("input.txt", RecordLayout.parse(
+            "100,int,94")));
+    }
+
+
+    /**
+     * Dirty neighbours are written together on eviction
+     * 100 Blocks
+     * 10 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testCoalescedWrites() throws Exception {
+        String[] args = new String[5];
+        args[0] = "input.txt";
+        args[1] = "10";
+        args[2] = "statFile.txt";
+        args[3] = "--coalesce=8";
+        args[4] = "--store=channel";
+        Quicksort.generateFile("input.txt", "100", 'b');
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt"));
+    }
+
+
+    /**
+     * Flushing consecutive dirty blocks takes one gathering write
+     * 10 Blocks
+     * 10 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testGatheredFlush() throws Exception {
+        int[] cacheHits = new int[] { 0 };
+        int[] diskReads = new int[] { 0 };
+        int[] diskWrites = new int[] { 0 };
+        Quicksort.generateFile("input.txt", "10", 'b');
+        BufferPool pool = new BufferPool(10, 4096, "input.txt", cacheHits,
+            diskReads, diskWrites);
+        for (int block = 9; block >= 0; block--) {
+            pool.writeRecord(block * 4096, 0);
+        }
+        pool.flushAll();
+        assertEquals(10, diskWrites[0]);
+        assertEquals(1, pool.getWriteCalls());
+    }
+
+
+    /**
+     * Stat file as JSON
+     * 20 Blocks
+     * 5 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testJsonStats() throws Exception {
+        String[] args = new String[4];
+        args[0] = "input.txt";
+        args[1] = "5";
+        args[2] = "statFile.txt";
+        args[3] = "--stats=json";
+        Quicksort.generateFile("input.txt", "20", 'b');
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt"));
+        String json = new String(Files.readAllBytes(Paths.get(
+            "statFile.txt")));
+        assertTrue(json.startsWith("{"));
+        assertTrue(json.contains("\"missesByPhase\""));
+        assertTrue(json.contains("\"peakStackDepth\""));
+    }
+
+
+    /**
+     * The streaming and parallel engines report through PoolStats too
+     * 20 Blocks
+     * 5 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testJsonStatsEngines() throws Exception {
+        String[] engines = { "merge", "counting", "parallel" };
+        for (String engine : engines) {
+            String[] args = new String[6];
+            args[0] = "input.txt";
+            args[1] = "5";
+            args[2] = "statFile.txt";
+            args[3] = "--stats=json";
+            args[4] = "--engine=" + engine;
+            args[5] = "--threads=1,2";
+            Quicksort.generateFile("input.txt", "20", 'b');
+            Quicksort.main(args);
+            assertTrue(fileChecker.checkFile("input.txt"));
+            String json = new String(Files.readAllBytes(Paths.get(
+                "statFile.txt")));
+            assertTrue(json.contains("\"engine\": \"" + engine + "\""));
+            assertTrue(json.contains("\"readLatency\""));
+            assertFalse(json.contains("\"diskReads\": 0,"));
+        }
+        String json = new String(Files.readAllBytes(Paths.get(
+            "statFile.txt")));
+        assertTrue(json.startsWith("["));
+        assertTrue(json.contains("\"threads\": 2"));
+    }
+
+
+    /**
+     * Every miss reads a block and is attributed to one phase
+     * 20 Blocks
+     * 3 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testPoolStats() throws Exception {
+        Quicksort.generateFile("input.txt", "20", 'b');
+        PoolStats stats = new PoolStats();
+        BufferPool pool = new BufferPool(3, 4096, new RafBlockStore(
+            "input.txt"), new LruPolicy(), stats);
+        new Sort().quickSort(pool, 0, pool.getSize() - 4);
+        pool.flushAll();
+        assertTrue(fileChecker.checkFile("input.txt"));
+
+        long phaseMisses = 0;
+        for (PoolStats.Phase phase : PoolStats.Phase.values()) {
+            phaseMisses += stats.getMisses(phase);
+        }
+        assertEquals(stats.getMisses(), phaseMisses);
+        assertEquals(stats.getMisses(), stats.getReads());
+        assertEquals(stats.getReads() * 4096, stats.getBytesRead());
+        assertEquals(stats.getReads(), stats.getReadLatency().getCount());
+        assertEquals(stats.getReads() - 3, stats.getEvictions());
+        assertTrue(stats.getMisses(PoolStats.Phase.PARTITION) > 0);
+    }
+
+
+    /**
+     * Seeded generator: the same seed gives the same file, and every
+     * distribution sorts
+     * 20 Blocks
+     * 5 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testSeededDistributions() throws Exception {
+        Quicksort.generateFile("input.txt", 20, "zipf", 7, 4);
+        Quicksort.generateFile("gen.txt", 20, "zipf", 7, 4);
+        assertTrue(Arrays.equals(Files.readAllBytes(Paths.get("input.txt")),
+            Files.readAllBytes(Paths.get("gen.txt"))));
+        Quicksort.generateFile("gen.txt", 20, "zipf", 8, 4);
+        assertFalse(Arrays.equals(Files.readAllBytes(Paths.get(
+            "input.txt")), Files.readAllBytes(Paths.get("gen.txt"))));
+
+        Quicksort.generateFile("input.txt", 20, "sorted", 7, 4);
+        assertTrue(fileChecker.checkFile("input.txt"));
+        Quicksort.generateFile("input.txt", 20, "all-equal", 7, 4);
+        assertTrue(fileChecker.checkFile("input.txt"));
+
+        String[] args = new String[3];
+        args[0] = "input.txt";
+        args[1] = "5";
+        args[2] = "statFile.txt";
+        for (FileGenerator.Distribution dist : FileGenerator.Distribution
+            .values()) {
+            Quicksort.generateFile("input.txt", 20, dist.name(), 7, 4);
+            assertEquals(20 * 4096, new File("input.txt").length());
+            Quicksort.main(args);
+            assertTrue(fileChecker.checkFile("input.txt"));
+        }
+    }
+
+
+    /**
+     * Seeded generator with 12 byte records
+     * 20 Blocks
+     * 5 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testSeededRecordSize() throws Exception {
+        Quicksort.generateFile("input.txt", 20, "reverse", 7, 12);
+        assertEquals(20 * 4096 / 12 * 12, new File("input.txt").length());
+        RecordLayout layout = RecordLayout.parse("12");
+        assertFalse(fileChecker.checkFile("input.txt", layout));
+        String[] args = new String[4];
+        args[0] = "input.txt";
+        args[1] = "5";
+        args[2] = "statFile.txt";
+        args[3] = "--layout=12";
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt", layout));
+    }
+
+
+    /**
+     * Hash recorded before sorting catches a record lost to a duplicate
+     * 100 Blocks
+     * 10 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testVerifiedSort() throws Exception {
+        Quicksort.generateFile("input.txt", 100, "few-unique", 3, 4);
+        long hash = fileChecker.hashFile("input.txt", RecordLayout.DEFAULT);
+        assertEquals(hash, fileChecker.hashFile("input.txt", RecordLayout
+            .parse("4,short,0,little")));
+        String[] args = new String[4];
+        args[0] = "input.txt";
+        args[1] = "10";
+        args[2] = "statFile.txt";
+        args[3] = "--verify=on";
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt", RecordLayout.DEFAULT,
+            hash));
+
+        try (RandomAccessFile file = new RandomAccessFile("input.txt",
+            "rw")) {
+            byte[] record = new byte[4];
+            file.readFully(record);
+            file.write(record);
+        }
+        assertTrue(fileChecker.checkFile("input.txt"));
+        assertFalse(fileChecker.checkFile("input.txt", RecordLayout.DEFAULT,
+            hash));
+    }
+
+
+    /**
+     * Files that fit the memory budget are sorted in memory
+     * 100 Blocks
+     * 10 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testMemoryEngine() throws Exception {
+        Quicksort.generateFile("input.txt", 100, "random", 5, 4);
+        long hash = fileChecker.hashFile("input.txt", RecordLayout.DEFAULT);
+        String[] args = new String[4];
+        args[0] = "input.txt";
+        args[1] = "10";
+        args[2] = "statFile.txt";
+        args[3] = "--memory=819200";
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt", RecordLayout.DEFAULT,
+            hash));
+        String stats = new String(Files.readAllBytes(Paths.get(
+            "statFile.txt")));
+        assertTrue(stats.contains("Engine: memory"));
+        assertTrue(stats.contains("Disk Reads: 1" + System.lineSeparator()));
+
+        args[3] = "--memory=819199";
+        Quicksort.generateFile("input.txt", 100, "random", 5, 4);
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt", RecordLayout.DEFAULT,
+            hash));
+        stats = new String(Files.readAllBytes(Paths.get("statFile.txt")));
+        assertFalse(stats.contains("Engine: memory"));
+    }
+
+
+    /**
+     * Sort works through a file held in memory
+     * 20 Blocks
+     * 
+     * @throws Exception
+     */
+    public void testMemoryEngineLayout() throws Exception {
+        RecordLayout layout = RecordLayout.parse("12,int,4,little");
+        new FileGenerator().generateFile("input.txt", 20, FileGenerator
+            .Distribution.ZIPF, 5, layout);
+        long hash = fileChecker.hashFile("input.txt", layout);
+        StubbedBufferPool memory = new StubbedBufferPool("input.txt", 4096,
+            new PoolStats());
+        new Sort(layout).quickSort(memory, 0, memory.getSize() - 12);
+        memory.flushAll();
+        assertTrue(fileChecker.checkFile("input.txt", layout, hash));
+        assertEquals(1, memory.getStats().getWrites());
+    }
+
+
+    /**
+     * Copy engine leaves the input alone and reports its stages
+     * 100 Blocks
+     * 6 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testCopySort() throws Exception {
+        Quicksort.generateFile("input.txt", 100, "organ-pipe", 9, 4);
+        byte[] input = Files.readAllBytes(Paths.get("input.txt"));
+        long hash = fileChecker.hashFile("input.txt", RecordLayout.DEFAULT);
+        String[] args = new String[4];
+        args[0] = "input.txt";
+        args[1] = "6";
+        args[2] = "statFile.txt";
+        args[3] = "--output=output.txt";
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("output.txt", RecordLayout.DEFAULT,
+            hash));
+        assertTrue(Arrays.equals(input, Files.readAllBytes(Paths.get(
+            "input.txt"))));
+        assertFalse(new File("output.txt.runs").exists());
+        String stats = new String(Files.readAllBytes(Paths.get(
+            "statFile.txt")));
+        assertTrue(stats.contains("Sort Busy Millis"));
+        assertTrue(stats.contains("Writer Idle Millis"));
+        new File("output.txt").delete();
+    }
+
+
+    /**
+     * The copy engine copies bytes after the last whole record through
+     * 3, 7 and 12290 bytes
+     * 6 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testCopySortKeepsTail() throws Exception {
+        int[] sizes = { 3, 7, 12290 };
+        for (int size : sizes) {
+            Quicksort.generateFile("input.txt", "4", 'b');
+            try (RandomAccessFile file = new RandomAccessFile("input.txt",
+                "rw")) {
+                file.setLength(size);
+            }
+            byte[] input = Files.readAllBytes(Paths.get("input.txt"));
+            String[] args = new String[4];
+            args[0] = "input.txt";
+            args[1] = "6";
+            args[2] = "statFile.txt";
+            args[3] = "--output=output.txt";
+            Quicksort.main(args);
+            byte[] output = Files.readAllBytes(Paths.get("output.txt"));
+            assertEquals(input.length, output.length);
+            int tail = size / 4 * 4;
+            assertTrue(Arrays.equals(Arrays.copyOfRange(input, tail, size),
+                Arrays.copyOfRange(output, tail, size)));
+            if (tail > 0) {
+                assertTrue(fileChecker.checkFile("output.txt"));
+            }
+            new File("output.txt").delete();
+        }
+    }
+
+
+    /**
+     * The copy engine sizes its buffers to the file when the budget
+     * dwarfs it
+     * 10 Blocks
+     * 1000000 and 2000000 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testCopySortLargeBudget() throws Exception {
+        String[] buffers = { "1000000", "2000000" };
+        for (String numBuffers : buffers) {
+            Quicksort.generateFile("input.txt", "10", 'b');
+            long hash = fileChecker.hashFile("input.txt",
+                RecordLayout.DEFAULT);
+            String[] args = new String[4];
+            args[0] = "input.txt";
+            args[1] = numBuffers;
+            args[2] = "statFile.txt";
+            args[3] = "--output=output.txt";
+            Quicksort.main(args);
+            assertEquals(40960, new File("output.txt").length());
+            assertTrue(fileChecker.checkFile("output.txt"));
+            assertEquals(hash, fileChecker.hashFile("output.txt",
+                RecordLayout.DEFAULT));
+            new File("output.txt").delete();
+        }
+    }
+
+
+    /**
+     * Tag sort moves each record once, fewer bytes than quicksort
+     * 40 Blocks of 16 byte records with a little-endian ulong key
+     * 
+     * @throws Exception
+     */
+    public void testTagSort() throws Exception {
+        RecordLayout layout = RecordLayout.parse("16,ulong,8,little");
+        new FileGenerator().generateFile("input.txt", 40, FileGenerator
+            .Distribution.RANDOM, 13, layout);
+        Files.copy(Paths.get("input.txt"), Paths.get("quick.txt"),
+            StandardCopyOption.REPLACE_EXISTING);
+        long hash = fileChecker.hashFile("input.txt", layout);
+        StubbedBufferPool tagged = new StubbedBufferPool("input.txt", 4096,
+            new PoolStats());
+        TagSort tagSort = new TagSort(layout);
+        tagSort.sort(tagged);
+        tagged.flushAll();
+        assertTrue(fileChecker.checkFile("input.txt", layout, hash));
+        assertTrue(tagSort.getBytesMoved() <= tagged.getSize());
+
+        StubbedBufferPool quick = new StubbedBufferPool("quick.txt", 4096,
+            new PoolStats());
+        Sort sort = new Sort(layout);
+        sort.quickSort(quick, 0, quick.getSize() - 16);
+        assertTrue(tagSort.getBytesMoved() < sort.getBytesMoved());
+        new File("quick.txt").delete();
+
+        String[] args = new String[5];
+        args[0] = "input.txt";
+        args[1] = "10";
+        args[2] = "statFile.txt";
+        args[3] = "--engine=tag";
+        args[4] = "--verify=on";
+        Quicksort.generateFile("input.txt", 20, "reverse", 3, 4);
+        Quicksort.main(args);
+        String stats = new String(Files.readAllBytes(Paths.get(
+            "statFile.txt")));
+        assertTrue(stats.contains("Bytes Moved: 81920"));
+    }
+
+
+    /**
+     * Batch mode sorts a directory under one budget
+     * 3 Files
+     * 10 Buffers shared
+     * 
+     * @throws Exception
+     */
+    public void testBatchSort() throws Exception {
+        BatchSort.Budget budget = new BatchSort.Budget(40);
+        assertEquals(3, budget.acquire(3));
+        assertEquals(20, budget.acquire(100));
+        budget.release(3);
+        budget.release(20);
+
+        File dir = new File("batch");
+        dir.mkdir();
+        long[] hashes = new long[3];
+        for (int i = 0; i < hashes.length; i++) {
+            String name = "batch/data" + i + ".txt";
+            // data0 needs 4 buffers, under MIN_SHARE, so it is granted
+            // them and sorted in memory however many jobs contend
+            Quicksort.generateFile(name, 2 + 20 * i, "random", i, 4);
+            hashes[i] = fileChecker.hashFile(name, RecordLayout.DEFAULT);
+        }
+        String[] args = new String[5];
+        args[0] = "batch";
+        args[1] = "10";
+        args[2] = "statFile.txt";
+        args[3] = "--batch=on";
+        args[4] = "--jobs=3";
+        Quicksort.main(args);
+        for (int i = 0; i < hashes.length; i++) {
+            File data = new File("batch/data" + i + ".txt");
+            assertTrue(fileChecker.checkFile(data.getPath(),
+                RecordLayout.DEFAULT, hashes[i]));
+            data.delete();
+        }
+        dir.delete();
+        String stats = new String(Files.readAllBytes(Paths.get(
+            "statFile.txt")));
+        assertTrue(stats.contains("Files: 3"));
+        assertTrue(stats.contains("Failed Files: 0"));
+        assertTrue(stats.contains("Engine: memory"));
+        assertTrue(stats.contains("Engine: quick"));
+    }
+
+
+    /**
+     * A sort that dies between checkpoints is resumed by the next run
+     * 200 Blocks
+     * 10 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testCheckpointResume() throws Exception {
+        Quicksort.generateFile("input.txt", 200, "random", 17, 4);
+        long hash = fileChecker.hashFile("input.txt", RecordLayout.DEFAULT);
+        BlockStore store = BlockStore.open("raf", "input.txt");
+        SortJournal journal = new SortJournal("input.txt", store, 4096,
+            RecordLayout.DEFAULT);
+        BufferPool pool = new BufferPool(10, 4096, journal.getStore(),
+            BufferPool.ReplacementPolicy.forName("lru", 10), new PoolStats());
+        journal.attach(pool);
+        int[] saves = { 0 };
+        Sort sort = new Sort();
+        sort.setCheckpoint((ranges, count) -> {
+            if (++saves[0] > 3) {
+                throw new IllegalStateException("Died");
+            }
+            journal.save(ranges, count);
+        }, 100000);
+        Exception died = null;
+        try {
+            sort.quickSort(pool, 0, pool.getSize() - 4);
+        }
+        catch (IllegalStateException e) {
+            died = e;
+            store.close();
+        }
+        assertNotNull(died);
+        assertEquals(3, journal.getCheckpoints());
+        assertTrue(journal.getLoggedBlocks() > 0);
+
+        String[] args = new String[4];
+        args[0] = "input.txt";
+        args[1] = "10";
+        args[2] = "statFile.txt";
+        args[3] = "--checkpoint=100000";
+        Quicksort.main(args);
+        assertTrue(fileChecker.checkFile("input.txt", RecordLayout.DEFAULT,
+            hash));
+        assertFalse(new File("input.txt.journal").exists());
+        assertFalse(new File("input.txt.undo").exists());
+        String stats = new String(Files.readAllBytes(Paths.get(
+            "statFile.txt")));
+        assertTrue(stats.contains("Resumed: true"));
+    }
+
+
+    /**
+     * Only the changed bytes of a sparsely dirtied block are written
+     * 10 Blocks
+     * 2 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testPartialWrites() throws Exception {
+        Quicksort.generateFile("input.txt", 10, "random", 21, 4);
+        byte[] before = Files.readAllBytes(Paths.get("input.txt"));
+        PoolStats stats = new PoolStats();
+        BufferPool pool = new BufferPool(2, 4096, BlockStore.open("raf",
+            "input.txt"), BufferPool.ReplacementPolicy.forName("lru", 2),
+            stats);
+        pool.enablePartialWrites(0.5);
+        pool.writeRecord(100, 0x01020304);
+        pool.writeRecord(120, 0x05060708);
+        int[] records = new int[600];
+        pool.writeRecords(5 * 4096, records, records.length);
+        pool.flushAll();
+        assertEquals(2, stats.getWrites());
+        assertEquals(24 + 4096, stats.getBytesWritten());
+
+        byte[] after = Files.readAllBytes(Paths.get("input.txt"));
+        assertEquals(before.length, after.length);
+        assertEquals(1, after[100]);
+        assertEquals(8, after[123]);
+        Arrays.fill(before, 100, 104, (byte)0);
+        Arrays.fill(before, 120, 124, (byte)0);
+        Arrays.fill(before, 5 * 4096, 5 * 4096 + 2400, (byte)0);
+        Arrays.fill(after, 100, 104, (byte)0);
+        Arrays.fill(after, 120, 124, (byte)0);
+        assertTrue(Arrays.equals(before, after));
+    }
+
+
+    /**
+     * A block size that does not divide the file leaves a short last
+     * block, which is written back short rather than padding the file
+     * 10 Blocks of 4096, sorted in blocks of 3000
+     * 3 Buffers
+     * 
+     * @throws Exception
+     */
+    public void testShortLastBlock() throws Exception {
+        Quicksort.generateFile("input.txt", "10", 'b');
+        String[] args = new String[5];
+        args[0] = "input.txt";
+        args[1] = "3";
+        args[2] = "statFile.txt";
+        args[3] = "--blocksize=3000";
+        args[4] = "--engine=quick";
+        Quicksort.main(args);
+        assertEquals(40960, new File("input.txt").length());
+        assertTrue(fileChecker.checkFile("input.txt"));
+    }
+
+
+    /**
+     * @param name
+     *            Name of a line of the stat file, e.g. "Disk Reads"
+     * @return Its value
+     * @throws Exception
+     */
+    private long statValue(String name) throws Exception {
+        for (String line : Files.readAllLines(Paths.get("statFile.txt"))) {
+            if (line.startsWith(name + ": ")) {
+                return Long.parseLong(line.substring(name.length() + 2)
+                    .split(" ")[0]);
+            }
+        }
+        throw new IllegalStateException("No " + name + " in statFile.txt");
+    }
 }
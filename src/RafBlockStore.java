@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-02-2023
+ * 
+ * @since 11-02-2023
+ * 
+ *        BlockStore using a seek followed by a read or write
+ * 
+ */
+public class RafBlockStore implements BlockStore {
+    private RandomAccessFile raf;
+
+    /**
+     * Constructor
+     * 
+     * @param filePath
+     *            Data filename
+     * @throws IOException
+     */
+    public RafBlockStore(String filePath) throws IOException {
+        this.raf = new RandomAccessFile(filePath, "rw");
+    }
+
+
+    @Override
+    public int read(long pos, byte[] data, int off, int len)
+        throws IOException {
+        raf.seek(pos);
+        int done = 0;
+        while (done < len) {
+            int n = raf.read(data, off + done, len - done);
+            if (n < 0) {
+                break;
+            }
+            done += n;
+        }
+        return done == 0 && len > 0 ? -1 : done;
+    }
+
+
+    @Override
+    public void write(long pos, byte[] data, int off, int len)
+        throws IOException {
+        raf.seek(pos);
+        raf.write(data, off, len);
+    }
+
+
+    /**
+     * One gathering write for the whole run through the file's channel
+     */
+    @Override
+    public void write(long pos, ByteBuffer[] srcs, int count)
+        throws IOException {
+        FileChannel channel = raf.getChannel();
+        long remaining = 0;
+        for (int i = 0; i < count; i++) {
+            remaining += srcs[i].remaining();
+        }
+        channel.position(pos);
+        while (remaining > 0) {
+            remaining -= channel.write(srcs, 0, count);
+        }
+    }
+
+
+    @Override
+    public long length() throws IOException {
+        return raf.length();
+    }
+
+
+    @Override
+    public void force() throws IOException {
+        raf.getChannel().force(false);
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+}
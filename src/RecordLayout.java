@@ -0,0 +1,303 @@
+import java.nio.ByteOrder;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-16-2023
+ * 
+ * @since 11-16-2023
+ * 
+ *        Describes the records of a data file: their size and where their
+ *        key sits, how wide it is and how its bytes are ordered
+ *        Keys are read as longs that order the same way the keys do, so
+ *        signed, unsigned and wider keys all compare with a long compare
+ * 
+ */
+public class RecordLayout {
+    /** 4 byte records keyed by the big-endian short at their start */
+    public static final RecordLayout DEFAULT = new RecordLayout(4, 0,
+        KeyType.SHORT, ByteOrder.BIG_ENDIAN);
+
+    private final int recordSize;
+    private final int keyOffset;
+    private final KeyType keyType;
+    private final ByteOrder byteOrder;
+    private final boolean bigEndian;
+
+    /**
+     * Type of the key, each reads its own width without a loop
+     */
+    public enum KeyType {
+        /** Signed 16 bit */
+        SHORT(2) {
+            @Override
+            long read(byte[] data, int off, boolean bigEndian) {
+                return (short)bits16(data, off, bigEndian);
+            }
+        },
+        /** Unsigned 16 bit */
+        USHORT(2) {
+            @Override
+            long read(byte[] data, int off, boolean bigEndian) {
+                return bits16(data, off, bigEndian);
+            }
+        },
+        /** Signed 32 bit */
+        INT(4) {
+            @Override
+            long read(byte[] data, int off, boolean bigEndian) {
+                return bits32(data, off, bigEndian);
+            }
+        },
+        /** Unsigned 32 bit */
+        UINT(4) {
+            @Override
+            long read(byte[] data, int off, boolean bigEndian) {
+                return bits32(data, off, bigEndian) & 0xFFFFFFFFL;
+            }
+        },
+        /** Signed 64 bit */
+        LONG(8) {
+            @Override
+            long read(byte[] data, int off, boolean bigEndian) {
+                return bits64(data, off, bigEndian);
+            }
+        },
+        /** Unsigned 64 bit, the sign bit is flipped to keep the order */
+        ULONG(8) {
+            @Override
+            long read(byte[] data, int off, boolean bigEndian) {
+                return bits64(data, off, bigEndian) ^ Long.MIN_VALUE;
+            }
+        };
+
+        private final int width;
+
+        /**
+         * @param width
+         *            Bytes in the key
+         */
+        KeyType(int width) {
+            this.width = width;
+        }
+
+
+        /**
+         * @return Bytes in the key
+         */
+        public int getWidth() {
+            return width;
+        }
+
+
+        /**
+         * Reads a key as a long with the same order as the key
+         * 
+         * @param data
+         *            Bytes holding the key
+         * @param off
+         *            Position of the key's first byte
+         * @param bigEndian
+         *            True if the most significant byte comes first
+         * @return the key
+         */
+        abstract long read(byte[] data, int off, boolean bigEndian);
+    }
+
+
+    /**
+     * Constructor
+     * 
+     * @param recordSize
+     *            Bytes per record
+     * @param keyOffset
+     *            Position of the key within a record
+     * @param keyType
+     *            Type of the key
+     * @param byteOrder
+     *            Order of the key's bytes
+     */
+    public RecordLayout(
+        int recordSize,
+        int keyOffset,
+        KeyType keyType,
+        ByteOrder byteOrder) {
+        if (recordSize <= 0 || keyOffset < 0 || keyOffset + keyType
+            .getWidth() > recordSize) {
+            throw new IllegalArgumentException("Key of " + keyType.getWidth()
+                + " bytes at " + keyOffset + " does not fit a record of "
+                + recordSize + " bytes");
+        }
+        this.recordSize = recordSize;
+        this.keyOffset = keyOffset;
+        this.keyType = keyType;
+        this.byteOrder = byteOrder;
+        this.bigEndian = byteOrder == ByteOrder.BIG_ENDIAN;
+    }
+
+
+    /**
+     * Parses "size[,type[,offset[,order]]]", e.g. "16,ulong,8,little"
+     * Missing fields are a short key at offset 0, big-endian
+     * 
+     * @param spec
+     *            Layout description
+     * @return The layout
+     */
+    public static RecordLayout parse(String spec) {
+        String[] parts = spec.split(",");
+        int size = Integer.parseInt(parts[0].trim());
+        KeyType type = parts.length > 1
+            ? KeyType.valueOf(parts[1].trim().toUpperCase())
+            : KeyType.SHORT;
+        int offset = parts.length > 2 ? Integer.parseInt(parts[2].trim()) : 0;
+        ByteOrder order = ByteOrder.BIG_ENDIAN;
+        if (parts.length > 3) {
+            String name = parts[3].trim().toLowerCase();
+            if (name.equals("little")) {
+                order = ByteOrder.LITTLE_ENDIAN;
+            }
+            else if (!name.equals("big")) {
+                throw new IllegalArgumentException("Unknown byte order: "
+                    + parts[3]);
+            }
+        }
+        return new RecordLayout(size, offset, type, order);
+    }
+
+
+    /**
+     * Reads the key of a record held in memory
+     * 
+     * @param data
+     *            Bytes holding the record
+     * @param recordOff
+     *            Position of the record
+     * @return the key, ordered as a long
+     */
+    public long readKey(byte[] data, int recordOff) {
+        return keyType.read(data, recordOff + keyOffset, bigEndian);
+    }
+
+
+    /**
+     * Reads a key that starts at off
+     * 
+     * @param data
+     *            Bytes holding the key
+     * @param off
+     *            Position of the key's first byte
+     * @return the key, ordered as a long
+     */
+    public long keyAt(byte[] data, int off) {
+        return keyType.read(data, off, bigEndian);
+    }
+
+
+    /**
+     * @return True for the 4 byte, big-endian short keyed records the
+     *         pool packs into ints
+     */
+    public boolean isDefault() {
+        return recordSize == 4 && keyOffset == 0 && keyType == KeyType.SHORT
+            && bigEndian;
+    }
+
+
+    /**
+     * @return Bytes per record
+     */
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+
+    /**
+     * @return Position of the key within a record
+     */
+    public int getKeyOffset() {
+        return keyOffset;
+    }
+
+
+    /**
+     * @return Bytes in the key
+     */
+    public int getKeyWidth() {
+        return keyType.getWidth();
+    }
+
+
+    /**
+     * @return Type of the key
+     */
+    public KeyType getKeyType() {
+        return keyType;
+    }
+
+
+    /**
+     * @return Order of the key's bytes
+     */
+    public ByteOrder getByteOrder() {
+        return byteOrder;
+    }
+
+
+    @Override
+    public String toString() {
+        return recordSize + "," + keyType.name().toLowerCase() + ","
+            + keyOffset + "," + (bigEndian ? "big" : "little");
+    }
+
+
+    /**
+     * @param data
+     *            Bytes
+     * @param off
+     *            Position of the first byte
+     * @param bigEndian
+     *            True if the most significant byte comes first
+     * @return Two bytes as an unsigned value
+     */
+    private static int bits16(byte[] data, int off, boolean bigEndian) {
+        int a = data[off] & 0xFF;
+        int b = data[off + 1] & 0xFF;
+        return bigEndian ? (a << 8) | b : (b << 8) | a;
+    }
+
+
+    /**
+     * @param data
+     *            Bytes
+     * @param off
+     *            Position of the first byte
+     * @param bigEndian
+     *            True if the most significant byte comes first
+     * @return Four bytes as an int
+     */
+    private static int bits32(byte[] data, int off, boolean bigEndian) {
+        if (bigEndian) {
+            return (data[off] << 24) | ((data[off + 1] & 0xFF) << 16)
+                | ((data[off + 2] & 0xFF) << 8) | (data[off + 3] & 0xFF);
+        }
+        return (data[off + 3] << 24) | ((data[off + 2] & 0xFF) << 16)
+            | ((data[off + 1] & 0xFF) << 8) | (data[off] & 0xFF);
+    }
+
+
+    /**
+     * @param data
+     *            Bytes
+     * @param off
+     *            Position of the first byte
+     * @param bigEndian
+     *            True if the most significant byte comes first
+     * @return Eight bytes as a long
+     */
+    private static long bits64(byte[] data, int off, boolean bigEndian) {
+        long high = bits32(data, bigEndian ? off : off + 4, bigEndian);
+        long low = bits32(data, bigEndian ? off + 4 : off, bigEndian);
+        return (high << 32) | (low & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-23-2023
+ * 
+ * @since 11-23-2023
+ * 
+ *        Record level access to the data file that Sort works through
+ *        BufferPool pages blocks in and out of a fixed set of buffers,
+ *        StubbedBufferPool holds the whole file in memory
+ *        Positions are absolute byte offsets into the data file
+ * 
+ */
+public interface RecordStore {
+
+    /**
+     * Insert new bytes into the data
+     * 
+     * @param space
+     *            Array holding new bytes
+     * @param size
+     *            Number of bytes to insert
+     * @param pos
+     *            Absolute position of bytes to insert
+     * @throws Exception
+     */
+    void insert(byte[] space, int size, long pos) throws Exception;
+
+
+    /**
+     * Retrieve bytes from the data
+     * 
+     * @param space
+     *            Array to carry requested data
+     * @param size
+     *            Number of bytes requested
+     * @param pos
+     *            Absolute position of bytes requested
+     * @throws Exception
+     */
+    void getBytes(byte[] space, int size, long pos) throws Exception;
+
+
+    /**
+     * Copies bytes out of the data, they may span several blocks
+     * 
+     * @param pos
+     *            Absolute position of the first byte
+     * @param space
+     *            Array receiving the bytes
+     * @param off
+     *            Where the bytes go in space
+     * @param size
+     *            Number of bytes
+     * @throws Exception
+     */
+    void readBytes(long pos, byte[] space, int off, int size)
+        throws Exception;
+
+
+    /**
+     * Copies bytes into the data, they may span several blocks
+     * 
+     * @param pos
+     *            Absolute position of the first byte
+     * @param space
+     *            Array holding the bytes
+     * @param off
+     *            Where the bytes start in space
+     * @param size
+     *            Number of bytes
+     * @throws Exception
+     */
+    void writeBytes(long pos, byte[] space, int off, int size)
+        throws Exception;
+
+
+    /**
+     * Reads the key of a 4 byte record
+     * 
+     * @param pos
+     *            Absolute position of the record
+     * @return short key value
+     * @throws Exception
+     */
+    short readKey(long pos) throws Exception;
+
+
+    /**
+     * Reads the key of a record of any layout
+     * 
+     * @param pos
+     *            Absolute position of the record
+     * @param layout
+     *            Where the key sits in the record and how to read it
+     * @return the key, ordered as a long
+     * @throws Exception
+     */
+    long readKey(long pos, RecordLayout layout) throws Exception;
+
+
+    /**
+     * Compares the keys of two 4 byte records
+     * 
+     * @param posA
+     *            Absolute position of the first record
+     * @param posB
+     *            Absolute position of the second record
+     * @return negative, zero or positive as the first key is less than,
+     *         equal to or greater than the second
+     * @throws Exception
+     */
+    int compareKeys(long posA, long posB) throws Exception;
+
+
+    /**
+     * Reads a whole 4 byte record packed into an int, key in the high half
+     * 
+     * @param pos
+     *            Absolute position of the record
+     * @return the record
+     * @throws Exception
+     */
+    int readRecord(long pos) throws Exception;
+
+
+    /**
+     * Writes a packed record
+     * 
+     * @param pos
+     *            Absolute position of the record
+     * @param record
+     *            the record, as returned by readRecord
+     * @throws Exception
+     */
+    void writeRecord(long pos, int record) throws Exception;
+
+
+    /**
+     * Exchanges two 4 byte records
+     * 
+     * @param posA
+     *            Absolute position of the first record
+     * @param posB
+     *            Absolute position of the second record
+     * @throws Exception
+     */
+    void swapRecords(long posA, long posB) throws Exception;
+
+
+    /**
+     * Copies a run of 4 byte records out of the data
+     * 
+     * @param pos
+     *            Absolute position of the first record
+     * @param records
+     *            Array receiving the records packed as by readRecord
+     * @param count
+     *            Number of records
+     * @throws Exception
+     */
+    void readRecords(long pos, int[] records, int count) throws Exception;
+
+
+    /**
+     * Copies a run of 4 byte records into the data
+     * 
+     * @param pos
+     *            Absolute position of the first record
+     * @param records
+     *            Records packed as by readRecord
+     * @param count
+     *            Number of records
+     * @throws Exception
+     */
+    void writeRecords(long pos, int[] records, int count) throws Exception;
+
+
+    /**
+     * Gets the pivot of the current partition
+     * 
+     * @param pivotIndex
+     *            Index of the pivot
+     * @return array of bytes
+     * @throws Exception
+     */
+    byte[] getPivot(long pivotIndex) throws Exception;
+
+
+    /**
+     * Attributes later misses to a part of the sort
+     * 
+     * @param phase
+     *            Phase being entered
+     * @return Phase being left
+     */
+    PoolStats.Phase setPhase(PoolStats.Phase phase);
+
+
+    /**
+     * @param pos
+     *            Absolute position within the data file
+     * @return True if reaching pos costs no disk access
+     */
+    boolean isResident(long pos);
+
+
+    /**
+     * @return Number of bytes held in memory at once
+     */
+    long getCapacity();
+
+
+    /**
+     * @return Size of each data block
+     */
+    int getBlockSize();
+
+
+    /**
+     * @return Absolute size of the data set
+     */
+    long getSize();
+
+
+    /**
+     * Writes all changes back to the data file and closes it
+     * 
+     * @throws Exception
+     */
+    void flushAll() throws Exception;
+}
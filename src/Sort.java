@@ -1,4 +1,4 @@
-import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * @author Xavier Akers
@@ -9,97 +9,773 @@ import java.nio.ByteBuffer;
  * 
  *        A modified QuickSort Algorithm
  *        Implementing BufferPool Message-Passing Communication
+ *        Works through any RecordStore, a BufferPool or a whole file held
+ *        in memory by StubbedBufferPool
+ *        Keys are compared and records swapped inside the pool,
+ *        nothing is copied out or allocated per record
+ *        Records follow a RecordLayout, the default 4 byte layout is
+ *        moved as packed ints and other layouts as bytes, keys of every
+ *        type compare as longs
+ *        Each phase marks itself on the pool so misses are attributed to it
  * 
  */
 public class Sort {
-    private byte[] space = new byte[4];
-    private byte[] swap1 = new byte[4];
-    private byte[] swap2 = new byte[4];
+    /** Records per partition below which insertion sort is used */
+    private static final int INSORT_RECORDS = 10;
+
+    /** Records sampled by the SAMPLED pivot strategy */
+    private static final int SAMPLE_SIZE = 15;
+
+    /** Children per node of the fallback heap, siblings share a block */
+    private static final int HEAP_ARITY = 8;
+
+    /** Largest range sorted in memory, the biggest byte[] */
+    private static final int MAX_RANGE_BYTES = Integer.MAX_VALUE - 8;
+
+    private long[] bounds = new long[2];
+
+    // Pending ranges as left, right, depth triples
+    private long[] stack = new long[3 * 32];
+    private int peakDepth;
+    // Bytes of records written back to the pool, twice per swap
+    private long bytesMoved;
+    private long[] samplePos = new long[SAMPLE_SIZE];
+    private long[] sampleKey = new long[SAMPLE_SIZE];
+
+    // Ranges up to this many bytes are sorted in memory, 0 turns it off
+    private int inMemoryBytes;
+    private int[] records;
+
+    private PivotStrategy pivotStrategy = PivotStrategy.MEDIAN_OF_3;
+
+    // Saves the pending ranges after about checkpointBytes of ranges
+    private Checkpoint checkpoint;
+    private long checkpointBytes;
+    private long sinceCheckpoint;
+
+    private final RecordLayout layout;
+    private final int rec;
+    // Partitions smaller than this many bytes use insertion sort
+    private final int insortBytes;
+    // True for the default layout, whose records move as packed ints
+    private final boolean packed;
+
+    // Scratch for layouts that move as bytes
+    private int heldRecord;
+    private byte[] held;
+    private byte[] moving;
+    private byte[] rangeBytes;
+    private byte[] rangeCopy;
+    private long[] rangeKeys;
+    private int[] rangeOrder;
 
     /**
-     * Recursive QuickSort Method
+     * How a partition's pivot record is picked
+     * Every strategy but MIDDLE moves a candidate by a block when the
+     * block next to it is resident and its own is not
+     */
+    public enum PivotStrategy {
+        /** The middle record */
+        MIDDLE,
+        /** Median of the first, middle and last records */
+        MEDIAN_OF_3,
+        /** Median of three medians of three spread over the range */
+        NINTHER,
+        /** Median of an evenly spaced sample */
+        SAMPLED
+    }
+
+
+    /**
+     * Sorts 4 byte records keyed by their leading big-endian short
+     */
+    public Sort() {
+        this(RecordLayout.DEFAULT);
+    }
+
+
+    /**
+     * Constructor
+     * 
+     * @param layout
+     *            Size of the records and where their key sits
+     */
+    public Sort(RecordLayout layout) {
+        this.layout = layout;
+        this.rec = layout.getRecordSize();
+        this.insortBytes = INSORT_RECORDS * rec;
+        this.packed = layout.isDefault();
+        this.held = new byte[rec];
+        this.moving = new byte[rec];
+    }
+
+
+    /**
+     * @param pivotStrategy
+     *            How pivots are picked from now on
+     */
+    public void setPivotStrategy(PivotStrategy pivotStrategy) {
+        this.pivotStrategy = pivotStrategy;
+    }
+
+
+    /**
+     * Uses the in-memory path for every range the pool can hold at once
+     * A range one block short of the capacity still fits when it starts
+     * part way into a block
+     * 
+     * @param bufferPool
+     *            Pool the ranges are sorted through
+     */
+    public void setInMemoryThreshold(RecordStore bufferPool) {
+        long bytes = bufferPool.getCapacity() - bufferPool.getBlockSize();
+        setInMemoryThreshold((int)Math.min(bytes, MAX_RANGE_BYTES));
+    }
+
+
+    /**
+     * Sorts ranges that fit in the pool by loading them into an int[],
+     * or a byte[] for layouts other than the default, sorting that, and
+     * writing it back block by block
+     * 
+     * @param bytes
+     *            Largest range sorted in memory, or 0 to always go record
+     *            by record
+     */
+    public void setInMemoryThreshold(int bytes) {
+        this.inMemoryBytes = bytes - bytes % rec;
+        this.records = null;
+        this.rangeBytes = null;
+    }
+
+
+    /**
+     * Receives the pending ranges at checkpoint boundaries, where every
+     * record outside them is in its final place
+     */
+    public interface Checkpoint {
+        /**
+         * @param ranges
+         *            Pending ranges as left, right, depth triples, the
+         *            last one is sorted next
+         * @param count
+         *            Number of longs in ranges that are used
+         * @throws Exception
+         */
+        void save(long[] ranges, int count) throws Exception;
+    }
+
+
+    /**
+     * Checkpoints before the first range and then each time about
+     * intervalBytes of ranges have been sorted since the last one
+     * 
+     * @param target
+     *            Receives the pending ranges
+     * @param intervalBytes
+     *            Bytes of ranges sorted between checkpoints
+     */
+    public void setCheckpoint(Checkpoint target, long intervalBytes) {
+        this.checkpoint = target;
+        this.checkpointBytes = intervalBytes;
+        this.sinceCheckpoint = intervalBytes;
+    }
+
+
+    /**
+     * Carries on a sort from the ranges of a checkpoint
+     * 
+     * @param bufferPool
+     *            access to the byte data
+     * @param ranges
+     *            Pending ranges as saved, left, right, depth triples
+     * @throws Exception
+     */
+    public void resume(RecordStore bufferPool, long[] ranges)
+        throws Exception {
+        if (ranges.length < 3) {
+            return;
+        }
+        int top = ranges.length - 3;
+        if (stack.length < top) {
+            stack = Arrays.copyOf(stack, top);
+        }
+        System.arraycopy(ranges, 0, stack, 0, top);
+        peakDepth = Math.max(peakDepth, top / 3);
+        quickSort(bufferPool, top, ranges[top], ranges[top + 1],
+            (int)ranges[top + 2]);
+    }
+
+
+    /**
+     * QuickSort Method
+     * 
+     * @param bufferPool
+     *            access to the byte data
+     * @param left
+     *            start of the array
+     * @param right
+     *            position of the last record
+     * @throws Exception
+     */
+    public void quickSort(RecordStore bufferPool, long left, long right)
+        throws Exception {
+        quickSort(bufferPool, 0, left, right, depthLimit(left, right));
+    }
+
+
+    /**
+     * QuickSort that turns to heapsort once it partitions too deep
+     * Loops on the smaller side and stacks the larger one, so at most
+     * log2(n) ranges wait at a time
      * 
      * @param bufferPool
      *            access to the byte data
+     * @param top
+     *            ranges already waiting on the stack, three longs each
      * @param left
      *            start of the array
      * @param right
-     *            number of bytes stored in the buffer
+     *            position of the last record
+     * @param depth
+     *            levels left before falling back to heapsort
      * @throws Exception
      */
-    public void quickSort(BufferPool bufferPool, int left, int right)
+    private void quickSort(
+        RecordStore bufferPool,
+        int top,
+        long left,
+        long right,
+        int depth)
         throws Exception {
-        // right - left < 40
-        if (right - left < 40) {
-            insort(bufferPool, left, right);
+        while (true) {
+            if (checkpoint != null) {
+                if (sinceCheckpoint >= checkpointBytes) {
+                    // The range about to be sorted is saved last
+                    if (top + 3 > stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[top] = left;
+                    stack[top + 1] = right;
+                    stack[top + 2] = depth;
+                    checkpoint.save(stack, top + 3);
+                    sinceCheckpoint = 0;
+                }
+                sinceCheckpoint += right - left + rec;
+            }
+            if (right - left < rec || sortInMemory(bufferPool, left, right)) {
+                // Nothing left to do for this range
+            }
+            else if (right - left < insortBytes) {
+                insort(bufferPool, left, right);
+            }
+            else if (depth == 0) {
+                heapSort(bufferPool, left, right);
+            }
+            else {
+                long newPivot = placePivot(bufferPool, left, right);
+                depth--;
+                if (newPivot - left < right - newPivot) {
+                    top = push(top, newPivot + rec, right, depth);
+                    right = newPivot - rec;
+                }
+                else {
+                    top = push(top, left, newPivot - rec, depth);
+                    left = newPivot + rec;
+                }
+                continue;
+            }
+            if (top == 0) {
+                return;
+            }
+            top -= 3;
+            left = stack[top];
+            right = stack[top + 1];
+            depth = (int)stack[top + 2];
         }
-        else {
-            int pivotindex = findPivot(left, right);
-            byte[] pivotVal = bufferPool.getPivot(pivotindex);
+    }
+
+
+    /**
+     * Stacks a range for later
+     * 
+     * @param top
+     *            current top of the stack
+     * @param left
+     *            position of the first record
+     * @param right
+     *            position of the last record
+     * @param depth
+     *            levels left before falling back to heapsort
+     * @return new top of the stack
+     */
+    private int push(int top, long left, long right, int depth) {
+        if (top + 3 > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[top] = left;
+        stack[top + 1] = right;
+        stack[top + 2] = depth;
+        top += 3;
+        peakDepth = Math.max(peakDepth, top / 3);
+        return top;
+    }
+
 
-            short key = getKey(pivotVal);
+    /**
+     * @return Most ranges that have waited on the work stack at once
+     */
+    public int getPeakDepth() {
+        return peakDepth;
+    }
 
-            bufferPool.getBytes(swap1, 4, (int)(right / 4) * 4);
-            swap(bufferPool, pivotindex, right, pivotVal, swap1);
 
-            int newPivot = partition(bufferPool, left, right - 4, key);
+    /**
+     * @return Bytes of records the sort has written into the pool
+     */
+    public long getBytesMoved() {
+        return bytesMoved;
+    }
 
-            bufferPool.getBytes(swap1, 4, newPivot);
-            swap(bufferPool, newPivot, right, swap1, pivotVal);
 
-            if ((newPivot - left) > 1) {
-                quickSort(bufferPool, left, newPivot - 4);
-            }
-            if ((right - newPivot) > 1) {
-                quickSort(bufferPool, newPivot + 4, right);
+    /**
+     * @param left
+     *            position of the first record
+     * @param right
+     *            position of the last record
+     * @return Recursion depth allowed for the range, twice log2 of its
+     *         record count
+     */
+    private int depthLimit(long left, long right) {
+        long count = (right - left) / rec + 1;
+        return 2 * (63 - Long.numberOfLeadingZeros(Math.max(count, 1)));
+    }
+
+
+    /**
+     * Sorts a range in memory if it is no larger than the threshold
+     * Small ranges are left to insertion sort
+     * 
+     * @param bufferPool
+     *            access to the byte data
+     * @param left
+     *            position of the first record
+     * @param right
+     *            position of the last record
+     * @return True if the range was sorted
+     * @throws Exception
+     */
+    private boolean sortInMemory(RecordStore bufferPool, long left, long right)
+        throws Exception {
+        long bytes = right - left + rec;
+        if (bytes > inMemoryBytes || bytes <= insortBytes) {
+            return false;
+        }
+        int count = (int)(bytes / rec);
+        PoolStats.Phase prev = bufferPool.setPhase(PoolStats.Phase.IN_MEMORY);
+        bytesMoved += bytes;
+        if (!packed) {
+            if (rangeBytes == null) {
+                rangeBytes = new byte[inMemoryBytes];
+                rangeCopy = new byte[inMemoryBytes];
+                rangeKeys = new long[inMemoryBytes / rec];
+                rangeOrder = new int[2 * (inMemoryBytes / rec)];
             }
+            bufferPool.readBytes(left, rangeBytes, 0, (int)bytes);
+            MemorySort.sortRecords(rangeBytes, (int)bytes, layout, rangeKeys,
+                rangeOrder, rangeCopy);
+            bufferPool.writeBytes(left, rangeBytes, 0, (int)bytes);
+            bufferPool.setPhase(prev);
+            return true;
+        }
+        if (records == null) {
+            records = new int[inMemoryBytes / rec];
         }
+        bufferPool.readRecords(left, records, count);
+        Arrays.sort(records, 0, count);
+        bufferPool.writeRecords(left, records, count);
+        bufferPool.setPhase(prev);
+        return true;
     }
 
 
-    public void quicksort(BufferPool bufferPool, int low, int high)
+    /**
+     * Partitions a range around a record chosen by the pivot strategy
+     * and moves that record to its final position
+     * 
+     * @param bufferPool
+     *            access to the byte data
+     * @param left
+     *            start of the range
+     * @param right
+     *            position of the last record
+     * @return final position of the pivot record
+     * @throws Exception
+     */
+    public long placePivot(RecordStore bufferPool, long left, long right)
         throws Exception {
-        int[] pivotIndices = partition(bufferPool, low, high);
-        quicksort(bufferPool, low, pivotIndices[0] - 4);
-        quicksort(bufferPool, pivotIndices[1] + 4, high);
+        long pivotIndex = choosePivot(bufferPool, left, right);
+        swap(bufferPool, pivotIndex, right);
+        long pivot = readKey(bufferPool, right);
+
+        long newPivot = partition(bufferPool, left, right - rec, pivot);
+        swap(bufferPool, newPivot, right);
+        return newPivot;
     }
 
 
-    public int[] partition(BufferPool bufferPool, int low, int high)
+    /**
+     * Three-way QuickSort, groups records equal to the pivot
+     * 
+     * @param bufferPool
+     *            access to the byte data
+     * @param low
+     *            position of the first record
+     * @param high
+     *            position of the last record
+     * @throws Exception
+     */
+    public void quicksort(RecordStore bufferPool, long low, long high)
         throws Exception {
-        bufferPool.getBytes(space, 4, low);
-        System.out.println((char) space[1]);
-        short pivot = getKey(space);
-        int lt = low;
-        int gt = high;
-        int i = low;
+        quicksort(bufferPool, low, high, depthLimit(low, high));
+    }
+
+
+    /**
+     * Three-way QuickSort that turns to heapsort once it partitions too
+     * deep, stacking the larger side like quickSort
+     * 
+     * @param bufferPool
+     *            access to the byte data
+     * @param low
+     *            position of the first record
+     * @param high
+     *            position of the last record
+     * @param depth
+     *            levels left before falling back to heapsort
+     * @throws Exception
+     */
+    private void quicksort(
+        RecordStore bufferPool,
+        long low,
+        long high,
+        int depth)
+        throws Exception {
+        int top = 0;
+        while (true) {
+            if (low >= high || sortInMemory(bufferPool, low, high)) {
+                // Nothing left to do for this range
+            }
+            else if (depth == 0) {
+                heapSort(bufferPool, low, high);
+            }
+            else {
+                swap(bufferPool, choosePivot(bufferPool, low, high), low);
+                long[] pivotIndices = partition(bufferPool, low, high);
+                long lt = pivotIndices[0];
+                long gt = pivotIndices[1];
+                depth--;
+                if (lt - low < high - gt) {
+                    top = push(top, gt + rec, high, depth);
+                    high = lt - rec;
+                }
+                else {
+                    top = push(top, low, lt - rec, depth);
+                    low = gt + rec;
+                }
+                continue;
+            }
+            if (top == 0) {
+                return;
+            }
+            top -= 3;
+            low = stack[top];
+            high = stack[top + 1];
+            depth = (int)stack[top + 2];
+        }
+    }
+
+
+    /**
+     * Three-way partition around the key at low
+     * 
+     * @param bufferPool
+     *            access to the byte data
+     * @param low
+     *            position of the first record
+     * @param high
+     *            position of the last record
+     * @return positions of the first and last records equal to the pivot,
+     *         the array is reused by the next call
+     * @throws Exception
+     */
+    public long[] partition(RecordStore bufferPool, long low, long high)
+        throws Exception {
+        PoolStats.Phase prev = bufferPool.setPhase(PoolStats.Phase.PARTITION);
+        long pivot = readKey(bufferPool, low);
+        long lt = low;
+        long gt = high;
+        long i = low;
 
         while (i <= gt) {
-            bufferPool.getBytes(swap1, 4, i);
-            if (getKey(swap1) < pivot) {
-                bufferPool.getBytes(swap2, 4, lt);
-                swap(bufferPool, i, lt, swap1, swap2);
-                i += 4;
-                lt += 4;
-            }
-            else if (getKey(swap1) > pivot) {
-                bufferPool.getBytes(swap2, 4, gt);
-                swap(bufferPool, i, gt, swap1, swap2);
-                gt -= 4;
+            long key = readKey(bufferPool, i);
+            if (key < pivot) {
+                swap(bufferPool, i, lt);
+                i += rec;
+                lt += rec;
+            }
+            else if (key > pivot) {
+                swap(bufferPool, i, gt);
+                gt -= rec;
             }
             else {
-                i += 4;
+                i += rec;
             }
+        }
+
+        bufferPool.setPhase(prev);
+        bounds[0] = lt;
+        bounds[1] = gt;
+        return bounds;
+    }
+
+
+    /**
+     * Picks a pivot record by the current strategy
+     * 
+     * @param bufferPool
+     *            access to the byte data
+     * @param left
+     *            position of the first record
+     * @param right
+     *            position of the last record
+     * @return position of the pivot record
+     * @throws Exception
+     */
+    public long choosePivot(RecordStore bufferPool, long left, long right)
+        throws Exception {
+        PoolStats.Phase prev = bufferPool.setPhase(PoolStats.Phase.PIVOT);
+        long pivot = pickPivot(bufferPool, left, right);
+        bufferPool.setPhase(prev);
+        return pivot;
+    }
+
 
+    /**
+     * Applies the current strategy
+     * 
+     * @param bufferPool
+     *            access to the byte data
+     * @param left
+     *            position of the first record
+     * @param right
+     *            position of the last record
+     * @return position of the pivot record
+     * @throws Exception
+     */
+    private long pickPivot(RecordStore bufferPool, long left, long right)
+        throws Exception {
+        long count = (right - left) / rec + 1;
+        PivotStrategy strategy = pivotStrategy;
+        if (strategy == PivotStrategy.SAMPLED && count < 4 * SAMPLE_SIZE) {
+            strategy = PivotStrategy.NINTHER;
+        }
+        if (strategy == PivotStrategy.NINTHER && count < 40) {
+            strategy = PivotStrategy.MEDIAN_OF_3;
+        }
+
+        long mid = findPivot(left, right);
+        switch (strategy) {
+            case MEDIAN_OF_3:
+                return median3(bufferPool, left, near(bufferPool, mid, left,
+                    right), right);
+            case NINTHER:
+                long step = (count / 8) * rec;
+                long a = median3(bufferPool, left, near(bufferPool, left
+                    + step, left, right), near(bufferPool, left + 2 * step,
+                        left, right));
+                long b = median3(bufferPool, near(bufferPool, mid - step, left,
+                    right), near(bufferPool, mid, left, right), near(
+                        bufferPool, mid + step, left, right));
+                long c = median3(bufferPool, near(bufferPool, right - 2 * step,
+                    left, right), near(bufferPool, right - step, left, right),
+                    right);
+                return median3(bufferPool, a, b, c);
+            case SAMPLED:
+                return sampledMedian(bufferPool, left, right, count);
+            default:
+                return mid;
+        }
+    }
+
+
+    /**
+     * Moves a candidate a block away if that keeps it in the range and
+     * turns a miss into a hit
+     * 
+     * @param bufferPool
+     *            access to the byte data
+     * @param pos
+     *            candidate record
+     * @param left
+     *            position of the first record
+     * @param right
+     *            position of the last record
+     * @return the candidate or a resident record near it
+     */
+    private long near(RecordStore bufferPool, long pos, long left, long right) {
+        if (bufferPool.isResident(pos)) {
+            return pos;
+        }
+        long block = Math.max(rec, bufferPool.getBlockSize() / rec * rec);
+        if (pos - block >= left && bufferPool.isResident(pos - block)) {
+            return pos - block;
+        }
+        if (pos + block <= right && bufferPool.isResident(pos + block)) {
+            return pos + block;
+        }
+        return pos;
+    }
+
+
+    /**
+     * @param bufferPool
+     *            access to the byte data
+     * @param a
+     *            first candidate
+     * @param b
+     *            second candidate
+     * @param c
+     *            third candidate
+     * @return the candidate holding the median key
+     * @throws Exception
+     */
+    private long median3(RecordStore bufferPool, long a, long b, long c)
+        throws Exception {
+        long ka = readKey(bufferPool, a);
+        long kb = readKey(bufferPool, b);
+        long kc = readKey(bufferPool, c);
+        if (ka < kb) {
+            return kb < kc ? b : (ka < kc ? c : a);
+        }
+        return ka < kc ? a : (kb < kc ? c : b);
+    }
+
+
+    /**
+     * @param bufferPool
+     *            access to the byte data
+     * @param left
+     *            position of the first record
+     * @param right
+     *            position of the last record
+     * @param count
+     *            number of records in the range
+     * @return the sampled record holding the median key
+     * @throws Exception
+     */
+    private long sampledMedian(
+        RecordStore bufferPool,
+        long left,
+        long right,
+        long count)
+        throws Exception {
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            long pos = left + i * (count - 1) / (SAMPLE_SIZE - 1) * rec;
+            pos = near(bufferPool, pos, left, right);
+            long key = readKey(bufferPool, pos);
+            int j = i;
+            while (j > 0 && sampleKey[j - 1] > key) {
+                sampleKey[j] = sampleKey[j - 1];
+                samplePos[j] = samplePos[j - 1];
+                j--;
+            }
+            sampleKey[j] = key;
+            samplePos[j] = pos;
+        }
+        return samplePos[SAMPLE_SIZE / 2];
+    }
+
+
+    /**
+     * Heapsort through the pool, the worst case guard for QuickSort
+     * The heap has HEAP_ARITY children per node so it is shallow and a
+     * node's children sit next to each other, usually in one block
+     * 
+     * @param bufferPool
+     *            access to the byte data
+     * @param left
+     *            position of the first record
+     * @param right
+     *            position of the last record
+     * @throws Exception
+     */
+    public void heapSort(RecordStore bufferPool, long left, long right)
+        throws Exception {
+        PoolStats.Phase prev = bufferPool.setPhase(PoolStats.Phase.HEAPSORT);
+        long count = (right - left) / rec + 1;
+        for (long i = (count - 2) / HEAP_ARITY; i >= 0; i--) {
+            siftDown(bufferPool, left, i, count);
         }
+        for (long end = count - 1; end > 0; end--) {
+            swap(bufferPool, left, left + end * rec);
+            siftDown(bufferPool, left, 0, end);
+        }
+        bufferPool.setPhase(prev);
+    }
 
-        return new int[] { lt, gt };
+
+    /**
+     * Moves a record down the max-heap until no child has a larger key
+     * 
+     * @param bufferPool
+     *            access to the byte data
+     * @param base
+     *            position of the heap's root
+     * @param node
+     *            heap index of the record
+     * @param count
+     *            number of records in the heap
+     * @throws Exception
+     */
+    private void siftDown(
+        RecordStore bufferPool,
+        long base,
+        long node,
+        long count)
+        throws Exception {
+        long key = hold(bufferPool, base + node * rec);
+        long hole = node;
+        while (true) {
+            long first = hole * HEAP_ARITY + 1;
+            if (first >= count) {
+                break;
+            }
+            long last = Math.min(first + HEAP_ARITY, count);
+            long max = first;
+            long maxKey = readKey(bufferPool, base + first * rec);
+            for (long child = first + 1; child < last; child++) {
+                long childKey = readKey(bufferPool, base + child * rec);
+                if (childKey > maxKey) {
+                    max = child;
+                    maxKey = childKey;
+                }
+            }
+            if (maxKey <= key) {
+                break;
+            }
+            move(bufferPool, base + max * rec, base + hole * rec);
+            hole = max;
+        }
+        if (hole != node) {
+            put(bufferPool, base + hole * rec);
+        }
     }
 
 
     /**
      * Finds the pivot of the bufferedStorage
-     * Adjusted for 4 bytes records
+     * Adjusted for the record size
      * 
      * @param left
      *            left most index
@@ -107,13 +783,16 @@ public class Sort {
      *            right most index
      * @return the Pivot index of the record
      */
-    public int findPivot(int left, int right) {
-        return (((int)(left / 4) + (int)(right / 4)) / 2) * 4;
+    public long findPivot(long left, long right) {
+        return ((left / rec + right / rec) / 2) * rec;
     }
 
 
     /**
-     * Sorts the subarray
+     * Partitions the subarray, the record after right must hold a key
+     * no smaller than pivotVal
+     * Both scans stop on keys equal to the pivot so duplicates split
+     * evenly
      * 
      * @param bufferPool
      *            Provides access to the data
@@ -123,127 +802,173 @@ public class Sort {
      *            right most index
      * @param pivotVal
      *            value of the pivot
-     * @return the new left index
+     * @return the first index of the right partition
      * @throws Exception
      */
-    public int partition(
-        BufferPool bufferPool,
-        int left,
-        int right,
-        short pivotVal)
+    public long partition(
+        RecordStore bufferPool,
+        long left,
+        long right,
+        long pivotVal)
         throws Exception {
-
-        right = (int)(right / 4) * 4;
-
-        bufferPool.getBytes(swap1, 4, left);
-        if (pivotVal == getKey(swap1)) {
-            return right;
-        }
-        while (left <= right) {
-            bufferPool.getBytes(swap1, 4, left);
-            while (getKey(swap1) < pivotVal) {
-                left += 4;
-                bufferPool.getBytes(swap1, 4, left);
+        PoolStats.Phase prev = bufferPool.setPhase(PoolStats.Phase.PARTITION);
+        long low = left;
+        while (true) {
+            while (readKey(bufferPool, left) < pivotVal) {
+                left += rec;
             }
-
-            bufferPool.getBytes(swap2, 4, right);
-            while ((right >= left) && getKey(swap2) >= pivotVal) {
-                right -= 4;
-                if (right >= 0) {
-                    bufferPool.getBytes(swap2, 4, right);
-                }
+            while (right > low && readKey(bufferPool, right) > pivotVal) {
+                right -= rec;
             }
-            if (right > left) {
-                swap(bufferPool, left, right, swap1, swap2);
+            if (left >= right) {
+                bufferPool.setPhase(prev);
+                return left;
             }
+            swap(bufferPool, left, right);
+            left += rec;
+            right -= rec;
         }
-        return left;
     }
 
 
-    public void insort(BufferPool bufferPool, int left, int right)
+    /**
+     * Insertion sort for small partitions
+     * Larger records are shifted up rather than swapped
+     * 
+     * @param bufferPool
+     *            Provides access to the data
+     * @param left
+     *            left most index
+     * @param right
+     *            right most index
+     * @throws Exception
+     */
+    public void insort(RecordStore bufferPool, long left, long right)
         throws Exception {
-
-        for (int i = left + 4; i <= right; i += 4) {
-            int j = i;
-            bufferPool.getBytes(space, 4, j);
-            short key = getKey(space);
-            while (j > left) {
-                bufferPool.getBytes(swap2, 4, j - 4);
-                short prevKey = getKey(swap2);
-                if (key < prevKey) {
-                    swap(bufferPool, j, j - 4, space, swap2);
-                    j -= 4;
-
-                }
-                else if (key == prevKey) {
-                    break;
-                }
-                else {
-                    break;
-                }
+        PoolStats.Phase prev = bufferPool.setPhase(PoolStats.Phase.INSORT);
+        for (long i = left + rec; i <= right; i += rec) {
+            long key = hold(bufferPool, i);
+            long j = i;
+            while (j > left && readKey(bufferPool, j - rec) > key) {
+                move(bufferPool, j - rec, j);
+                j -= rec;
+            }
+            if (j != i) {
+                put(bufferPool, j);
             }
         }
+        bufferPool.setPhase(prev);
     }
 
 
     /**
-     * Extracts key from 4 byte record
+     * Reads a record's key
      * 
-     * @param record
-     *            byte array containing the record
-     * @return short key value
+     * @param bufferPool
+     *            Provides access to the data
+     * @param pos
+     *            position of the record
+     * @return the key, ordered as a long
+     * @throws Exception
      */
-    private short getKey(byte[] record) {
-        ByteBuffer buffer = ByteBuffer.wrap(record);
-        return buffer.getShort();
-
+    private long readKey(RecordStore bufferPool, long pos) throws Exception {
+        if (packed) {
+            return bufferPool.readKey(pos);
+        }
+        return bufferPool.readKey(pos, layout);
     }
 
 
     /**
-     * Moves records around in a bufferPool
+     * Exchanges two records
      * 
      * @param bufferPool
-     *            the bufferPool
-     * @param index1
-     *            index to be swapped, pivot
-     * @param index2
-     *            index to be swapped, right
+     *            Provides access to the data
+     * @param posA
+     *            position of the first record
+     * @param posB
+     *            position of the second record
      * @throws Exception
      */
-    private void swap(
-        BufferPool bufferPool,
-        int index1,
-        int index2,
-        byte[] index1Val,
-        byte[] index2Val)
+    private void swap(RecordStore bufferPool, long posA, long posB)
         throws Exception {
-        index2 = (int)(index2 / 4) * 4;
-        index1 = (int)(index1 / 4) * 4;
-
-        if (index1 >= 0 && index1 < bufferPool.getSize() && index2 >= 0
-            && index2 < bufferPool.getSize()) {
+        PoolStats.Phase prev = bufferPool.setPhase(PoolStats.Phase.SWAP);
+        if (posA != posB) {
+            bytesMoved += 2 * rec;
+        }
+        if (packed) {
+            bufferPool.swapRecords(posA, posB);
+        }
+        else if (posA != posB) {
+            bufferPool.readBytes(posA, held, 0, rec);
+            bufferPool.readBytes(posB, moving, 0, rec);
+            bufferPool.writeBytes(posB, held, 0, rec);
+            bufferPool.writeBytes(posA, moving, 0, rec);
+        }
+        bufferPool.setPhase(prev);
+    }
 
-            bufferPool.insert(index1Val, 4, index2);
-            bufferPool.insert(index2Val, 4, index1);
 
+    /**
+     * Copies a record aside until put writes it back
+     * 
+     * @param bufferPool
+     *            Provides access to the data
+     * @param pos
+     *            position of the record
+     * @return the record's key
+     * @throws Exception
+     */
+    private long hold(RecordStore bufferPool, long pos) throws Exception {
+        if (packed) {
+            heldRecord = bufferPool.readRecord(pos);
+            return (short)(heldRecord >> 16);
         }
+        bufferPool.readBytes(pos, held, 0, rec);
+        return layout.readKey(held, 0);
     }
 
 
-    private void swap(BufferPool bufferPool, int index1, int index2)
-        throws Exception {
-        index2 = (int)(index2 / 4) * 4;
-        index1 = (int)(index1 / 4) * 4;
+    /**
+     * Writes the record copied aside by hold
+     * 
+     * @param bufferPool
+     *            Provides access to the data
+     * @param pos
+     *            position to write it to
+     * @throws Exception
+     */
+    private void put(RecordStore bufferPool, long pos) throws Exception {
+        bytesMoved += rec;
+        if (packed) {
+            bufferPool.writeRecord(pos, heldRecord);
+        }
+        else {
+            bufferPool.writeBytes(pos, held, 0, rec);
+        }
+    }
 
-        if (index1 >= 0 && index1 < bufferPool.getSize() && index2 >= 0
-            && index2 < bufferPool.getSize()) {
-            bufferPool.getBytes(swap1, 4, index1);
-            bufferPool.getBytes(swap2, 4, index2);
-            bufferPool.insert(swap1, 4, index2);
-            bufferPool.insert(swap2, 4, index1);
 
+    /**
+     * Copies one record over another
+     * 
+     * @param bufferPool
+     *            Provides access to the data
+     * @param from
+     *            position of the record copied
+     * @param to
+     *            position overwritten
+     * @throws Exception
+     */
+    private void move(RecordStore bufferPool, long from, long to)
+        throws Exception {
+        bytesMoved += rec;
+        if (packed) {
+            bufferPool.writeRecord(to, bufferPool.readRecord(from));
+        }
+        else {
+            bufferPool.readBytes(from, moving, 0, rec);
+            bufferPool.writeBytes(to, moving, 0, rec);
         }
     }
 }
@@ -0,0 +1,213 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-28-2023
+ * 
+ * @since 11-28-2023
+ * 
+ *        Progress journal that lets a QuickSort through a BufferPool be
+ *        resumed after the process dies
+ *        At a checkpoint the pool's dirty blocks are written and forced,
+ *        then the pending ranges replace the journal in one rename, then
+ *        the undo log is emptied for the next epoch
+ *        Recovery undoes writes made after the journal's checkpoint, so
+ *        the file is back to the state the ranges describe
+ *        The journal is data-file.journal, the undo log data-file.undo
+ * 
+ */
+public class SortJournal implements Sort.Checkpoint {
+    private static final int MAGIC = 0x51534a31;
+
+    private Path journalPath;
+    private Path tempPath;
+    private String logPath;
+    private long fileSize;
+    private int recordSize;
+    private long epoch;
+    private long[] ranges;
+    private UndoLogBlockStore store;
+    private BufferPool pool;
+    private int checkpoints;
+
+    /**
+     * Constructor, loads the journal if an earlier run left one
+     * Call recover first so the data file matches it
+     * 
+     * @param dataPath
+     *            Data filename
+     * @param data
+     *            Store holding the data file
+     * @param blockSize
+     *            Size of each data block/buffer
+     * @param layout
+     *            Layout of the records
+     * @throws IOException
+     */
+    public SortJournal(
+        String dataPath,
+        BlockStore data,
+        int blockSize,
+        RecordLayout layout)
+        throws IOException {
+        this.journalPath = Paths.get(dataPath + ".journal");
+        this.tempPath = Paths.get(dataPath + ".journal.tmp");
+        this.logPath = dataPath + ".undo";
+        this.fileSize = data.length();
+        this.recordSize = layout.getRecordSize();
+        if (Files.exists(journalPath)) {
+            load();
+        }
+        this.store = new UndoLogBlockStore(data, logPath, blockSize, epoch);
+    }
+
+
+    /**
+     * Returns the data file to the last checkpoint of an interrupted
+     * run, leaving it alone if there is none
+     * 
+     * @param dataPath
+     *            Data filename
+     * @param storeKind
+     *            Block store used to put blocks back
+     * @return Number of blocks put back
+     * @throws IOException
+     */
+    public static int recover(String dataPath, String storeKind)
+        throws IOException {
+        Path journal = Paths.get(dataPath + ".journal");
+        if (!Files.exists(journal)) {
+            return 0;
+        }
+        long epoch;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(
+            journal))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a sort journal: " + journal);
+            }
+            epoch = in.readLong();
+        }
+        BlockStore data = BlockStore.open(storeKind, dataPath);
+        try {
+            return UndoLogBlockStore.undo(data, dataPath + ".undo", epoch);
+        }
+        finally {
+            data.close();
+        }
+    }
+
+
+    /**
+     * Reads the journal, checking it belongs to this data file
+     * 
+     * @throws IOException
+     */
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(
+            journalPath))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a sort journal: " + journalPath);
+            }
+            epoch = in.readLong();
+            long size = in.readLong();
+            int rec = in.readInt();
+            if (size != fileSize || rec != recordSize) {
+                throw new IllegalStateException(journalPath + " is for "
+                    + size + " bytes of " + rec + " byte records, not "
+                    + fileSize + " bytes of " + recordSize);
+            }
+            ranges = new long[in.readInt()];
+            for (int i = 0; i < ranges.length; i++) {
+                ranges[i] = in.readLong();
+            }
+        }
+    }
+
+
+    /**
+     * @param bufferPool
+     *            Pool sorting the data file through getStore
+     */
+    public void attach(BufferPool bufferPool) {
+        this.pool = bufferPool;
+    }
+
+
+    @Override
+    public void save(long[] pending, int count) throws Exception {
+        pool.flush();
+        long next = epoch + 1;
+        FileOutputStream file = new FileOutputStream(tempPath.toFile());
+        try (DataOutputStream out = new DataOutputStream(file)) {
+            out.writeInt(MAGIC);
+            out.writeLong(next);
+            out.writeLong(fileSize);
+            out.writeInt(recordSize);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(pending[i]);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tempPath, journalPath, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        store.commit(next);
+        epoch = next;
+        checkpoints++;
+    }
+
+
+    /**
+     * Removes the journal and undo log once the sort is done and the pool
+     * flushed
+     * 
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        Files.deleteIfExists(journalPath);
+        Files.deleteIfExists(Paths.get(logPath));
+    }
+
+
+    /**
+     * @return Store to build the pool on, it logs blocks before they
+     *         change
+     */
+    public BlockStore getStore() {
+        return store;
+    }
+
+
+    /**
+     * @return Pending ranges of the loaded journal, or null if the sort
+     *         starts from the beginning
+     */
+    public long[] getRanges() {
+        return ranges;
+    }
+
+
+    /**
+     * @return Checkpoints taken by this run
+     */
+    public int getCheckpoints() {
+        return checkpoints;
+    }
+
+
+    /**
+     * @return Blocks logged before being overwritten
+     */
+    public long getLoggedBlocks() {
+        return store.getLoggedBlocks();
+    }
+}
@@ -1,20 +1,42 @@
+import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
 
 /**
  * @author Xavier Akers
  * 
- * @version Last Updated 10-19-2023
+ * @version Last Updated 11-23-2023
  * 
  * @since 10-16-2023
  * 
  *        BufferPool implementing message-passing interface
- *        Implementing LRU
+ *        Holds the whole file in memory, read in one sequential pass and
+ *        written back in another, so Sort can work through it like any
+ *        RecordStore without touching the disk in between
+ *        Files of 4 byte records can instead be sorted by their key into
+ *        one int[] with a parallel counting sort
  */
-public class StubbedBufferPool {
+public class StubbedBufferPool implements RecordStore {
+
+    /** Bytes per backing array, arrays cannot hold a file over 2 GB */
+    private static final int CHUNK = 1 << 30;
+    /** Bytes moved per read or write of the file */
+    private static final int IO_BYTES = 1 << 20;
+    /** Most records sortPacked can hold in one int[] */
+    public static final long MAX_PACKED = Integer.MAX_VALUE - 8;
+
+    private static final int REC = BufferPool.RECORD_SIZE;
+    private static final int KEYS = 1 << 16;
 
     private RandomAccessFile raf;
-    private byte[] stubbedArray;
+    private byte[][] stubbedArray;
+    private long length;
+    private int blockSize;
+    private boolean dirty;
     private byte[] taxi;
+    private byte[] keyTaxi;
+    private PoolStats stats;
 
     /**
      * Constructor
@@ -26,19 +48,44 @@ public class StubbedBufferPool {
      *            in this scenario, it is constant 4096
      * @param filePath
      *            input data file
+     * @throws IOException
      */
-    public StubbedBufferPool(int numBuffers, int blockSize, String filePath) {
-        try {
-            raf = new RandomAccessFile(filePath, "rw");
-            stubbedArray = new byte[(int)raf.length()];
-            raf.readFully(stubbedArray);
-        }
-        catch (Exception e) {
-            System.out.println("error in constrcutor");
-            e.printStackTrace();
-        }
-        
+    public StubbedBufferPool(int numBuffers, int blockSize, String filePath)
+        throws IOException {
+        this(filePath, blockSize, new PoolStats());
+    }
+
+
+    /**
+     * Constructor, reads the whole file
+     * 
+     * @param filePath
+     *            input data file
+     * @param blockSize
+     *            the size of each block, kept for Sort's pivot choice
+     * @param stats
+     *            Counts each sequential read and write of the file
+     * @throws IOException
+     */
+    public StubbedBufferPool(String filePath, int blockSize, PoolStats stats)
+        throws IOException {
+        this.raf = new RandomAccessFile(filePath, "rw");
+        this.length = raf.length();
+        this.blockSize = blockSize;
+        this.stats = stats;
         this.taxi = new byte[4];
+        this.keyTaxi = new byte[8];
+        stubbedArray = new byte[(int)((length + CHUNK - 1) / CHUNK)][];
+        for (int i = 0; i < stubbedArray.length; i++) {
+            stubbedArray[i] = new byte[(int)Math.min(CHUNK, length - (long)i
+                * CHUNK)];
+            for (int off = 0; off < stubbedArray[i].length; off += IO_BYTES) {
+                int n = Math.min(IO_BYTES, stubbedArray[i].length - off);
+                long start = System.nanoTime();
+                raf.readFully(stubbedArray[i], off, n);
+                stats.read(n, System.nanoTime() - start);
+            }
+        }
     }
 
 
@@ -52,10 +99,10 @@ public class StubbedBufferPool {
      * @param pos
      *            where to insert data in buffered storage
      */
-    public void insert(byte[] space, int size, int pos) {
+    public void insert(byte[] space, int size, long pos) {
         try {
-            if (pos >= 0 && size > 0 && pos + size <= stubbedArray.length) {
-                System.arraycopy(space, 0, stubbedArray, pos, size);
+            if (pos >= 0 && size > 0 && pos + size <= length) {
+                copy(space, 0, pos, size, true);
                 return;
             }
         }
@@ -75,10 +122,10 @@ public class StubbedBufferPool {
      * @param pos
      *            where to get data in buffered storage
      */
-    public void getBytes(byte[] space, int size, int pos) {
+    public void getBytes(byte[] space, int size, long pos) {
         try {
-            if (pos >= 0 && size > 0 && pos + size <= stubbedArray.length) {
-                System.arraycopy(stubbedArray, pos, space, 0, size);
+            if (pos >= 0 && size > 0 && pos + size <= length) {
+                copy(space, 0, pos, size, false);
                 return;
             }
         }
@@ -89,6 +136,209 @@ public class StubbedBufferPool {
     }
 
 
+    @Override
+    public void readBytes(long pos, byte[] space, int off, int size) {
+        copy(space, off, pos, size, false);
+    }
+
+
+    @Override
+    public void writeBytes(long pos, byte[] space, int off, int size) {
+        copy(space, off, pos, size, true);
+    }
+
+
+    /**
+     * Copies between space and the backing arrays, splitting at chunk
+     * boundaries
+     * 
+     * @param space
+     *            array holding or receiving the data
+     * @param from
+     *            where the data starts in space
+     * @param pos
+     *            where the data sits in buffered storage
+     * @param size
+     *            the amount of data
+     * @param toStorage
+     *            true to copy space into storage
+     */
+    private void copy(
+        byte[] space,
+        int from,
+        long pos,
+        int size,
+        boolean toStorage) {
+        int done = 0;
+        while (done < size) {
+            byte[] chunk = stubbedArray[(int)((pos + done) / CHUNK)];
+            int off = (int)((pos + done) % CHUNK);
+            int n = Math.min(size - done, chunk.length - off);
+            if (toStorage) {
+                System.arraycopy(space, from + done, chunk, off, n);
+            }
+            else {
+                System.arraycopy(chunk, off, space, from + done, n);
+            }
+            done += n;
+        }
+        dirty |= toStorage;
+    }
+
+
+    @Override
+    public short readKey(long pos) {
+        copy(taxi, 0, pos, 2, false);
+        return (short)((taxi[0] << 8) | (taxi[1] & 0xFF));
+    }
+
+
+    @Override
+    public long readKey(long pos, RecordLayout layout) {
+        copy(keyTaxi, 0, pos + layout.getKeyOffset(), layout.getKeyWidth(),
+            false);
+        return layout.keyAt(keyTaxi, 0);
+    }
+
+
+    @Override
+    public int compareKeys(long posA, long posB) {
+        short keyA = readKey(posA);
+        return keyA - readKey(posB);
+    }
+
+
+    @Override
+    public int readRecord(long pos) {
+        byte[] chunk = stubbedArray[(int)(pos / CHUNK)];
+        int off = (int)(pos % CHUNK);
+        return (chunk[off] << 24) | ((chunk[off + 1] & 0xFF) << 16)
+            | ((chunk[off + 2] & 0xFF) << 8) | (chunk[off + 3] & 0xFF);
+    }
+
+
+    @Override
+    public void writeRecord(long pos, int record) {
+        byte[] chunk = stubbedArray[(int)(pos / CHUNK)];
+        int off = (int)(pos % CHUNK);
+        chunk[off] = (byte)(record >>> 24);
+        chunk[off + 1] = (byte)(record >>> 16);
+        chunk[off + 2] = (byte)(record >>> 8);
+        chunk[off + 3] = (byte)record;
+        dirty = true;
+    }
+
+
+    @Override
+    public void swapRecords(long posA, long posB) {
+        int recordA = readRecord(posA);
+        writeRecord(posA, readRecord(posB));
+        writeRecord(posB, recordA);
+    }
+
+
+    @Override
+    public void readRecords(long pos, int[] records, int count) {
+        int i = 0;
+        while (i < count) {
+            byte[] chunk = stubbedArray[(int)(pos / CHUNK)];
+            int off = (int)(pos % CHUNK);
+            int n = Math.min(count - i, (chunk.length - off) / REC);
+            ByteBuffer.wrap(chunk, off, n * REC).asIntBuffer().get(records, i,
+                n);
+            i += n;
+            pos += (long)n * REC;
+        }
+    }
+
+
+    @Override
+    public void writeRecords(long pos, int[] records, int count) {
+        int i = 0;
+        while (i < count) {
+            byte[] chunk = stubbedArray[(int)(pos / CHUNK)];
+            int off = (int)(pos % CHUNK);
+            int n = Math.min(count - i, (chunk.length - off) / REC);
+            ByteBuffer.wrap(chunk, off, n * REC).asIntBuffer().put(records, i,
+                n);
+            i += n;
+            pos += (long)n * REC;
+        }
+        dirty = true;
+    }
+
+
+    /**
+     * Sorts a file of 4 byte records by a parallel counting sort on their
+     * 16 bit key: each slice of the file counts its keys, the counts give
+     * every slice its own place in each key's run, then the slices move
+     * their records into one int[] at once, which is unpacked back
+     * Equal keys keep their order
+     */
+    public void sortPacked() {
+        long count = length / REC;
+        if (count > MAX_PACKED) {
+            throw new IllegalStateException(count + " records do not fit"
+                + " one array");
+        }
+        PoolStats.Phase prev = setPhase(PoolStats.Phase.IN_MEMORY);
+        int n = (int)count;
+        int slices = (int)Math.max(1, Math.min(Runtime.getRuntime()
+            .availableProcessors(), count / KEYS));
+        int[][] next = new int[slices][KEYS];
+        IntStream.range(0, slices).parallel().forEach(s -> {
+            int[] counts = next[s];
+            for (int i = sliceStart(s, slices, n); i < sliceStart(s + 1,
+                slices, n); i++) {
+                counts[bucket(readRecord((long)i * REC))]++;
+            }
+        });
+        int pos = 0;
+        for (int key = 0; key < KEYS; key++) {
+            for (int s = 0; s < slices; s++) {
+                int c = next[s][key];
+                next[s][key] = pos;
+                pos += c;
+            }
+        }
+        int[] records = new int[n];
+        IntStream.range(0, slices).parallel().forEach(s -> {
+            int[] place = next[s];
+            for (int i = sliceStart(s, slices, n); i < sliceStart(s + 1,
+                slices, n); i++) {
+                int record = readRecord((long)i * REC);
+                records[place[bucket(record)]++] = record;
+            }
+        });
+        writeRecords(0, records, n);
+        setPhase(prev);
+    }
+
+
+    /**
+     * @param s
+     *            Slice number, or slices for the end of the last slice
+     * @param slices
+     *            Number of slices
+     * @param n
+     *            Number of records
+     * @return Index of the slice's first record
+     */
+    private static int sliceStart(int s, int slices, int n) {
+        return (int)((long)n * s / slices);
+    }
+
+
+    /**
+     * @param record
+     *            Packed record
+     * @return Its key shifted to 0..65535 in key order
+     */
+    private static int bucket(int record) {
+        return (record >>> 16) ^ 0x8000;
+    }
+
+
     /**
      * Gets the record at the pivot within buffered storage
      * 
@@ -96,17 +346,52 @@ public class StubbedBufferPool {
      *            the absolute index of the pivot
      * @return the pivot KV
      */
-    public byte[] getPivot(int pivotIndex) {
+    public byte[] getPivot(long pivotIndex) {
         getBytes(taxi, 4, pivotIndex);
         return taxi;
     }
 
 
+    @Override
+    public PoolStats.Phase setPhase(PoolStats.Phase phase) {
+        return stats.setPhase(phase);
+    }
+
+
+    @Override
+    public boolean isResident(long pos) {
+        return true;
+    }
+
+
+    /**
+     * @return Bytes held, the whole file
+     */
+    @Override
+    public long getCapacity() {
+        return length;
+    }
+
+
+    @Override
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+
     /**
      * @return the length of the bufferPool
      */
-    public int getSize() {
-        return stubbedArray.length;
+    public long getSize() {
+        return length;
+    }
+
+
+    /**
+     * @return Counters of the file's reads and writes
+     */
+    public PoolStats getStats() {
+        return stats;
     }
 
 
@@ -114,22 +399,46 @@ public class StubbedBufferPool {
      * Prints contents of the stubbedBuffer
      */
     public void printStub() {
-        for (int i = 0; i < stubbedArray.length; i++) {
-            System.out.print((char)stubbedArray[i]);
+        for (byte[] chunk : stubbedArray) {
+            for (int i = 0; i < chunk.length; i++) {
+                System.out.print((char)chunk[i]);
+            }
         }
         System.out.println();
     }
 
 
+    /**
+     * Writes the file back in one sequential pass if anything changed,
+     * then closes it
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void flushAll() throws IOException {
+        if (dirty) {
+            raf.seek(0);
+            for (byte[] chunk : stubbedArray) {
+                for (int off = 0; off < chunk.length; off += IO_BYTES) {
+                    int n = Math.min(IO_BYTES, chunk.length - off);
+                    long start = System.nanoTime();
+                    raf.write(chunk, off, n);
+                    stats.write(1, n, System.nanoTime() - start);
+                }
+            }
+            dirty = false;
+        }
+        raf.close();
+    }
+
+
     /**
      * Writes modified contents of the bufferPool back to the disk
      */
     public void flush() {
         System.out.println("Flushing");
         try {
-            raf.seek(0);
-            raf.write(stubbedArray);
-            raf.close();
+            flushAll();
         }
         catch (Exception e) {
             e.printStackTrace();
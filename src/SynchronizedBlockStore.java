@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-12-2023
+ * 
+ * @since 11-12-2023
+ * 
+ *        Serializes access to a BlockStore that keeps a file position or
+ *        mapping state, so a background thread can share it
+ * 
+ */
+public class SynchronizedBlockStore implements BlockStore {
+    private BlockStore store;
+
+    /**
+     * Constructor
+     * 
+     * @param store
+     *            Store being shared
+     */
+    public SynchronizedBlockStore(BlockStore store) {
+        this.store = store;
+    }
+
+
+    @Override
+    public synchronized int read(long pos, byte[] data, int off, int len)
+        throws IOException {
+        return store.read(pos, data, off, len);
+    }
+
+
+    @Override
+    public synchronized void write(long pos, byte[] data, int off, int len)
+        throws IOException {
+        store.write(pos, data, off, len);
+    }
+
+
+    @Override
+    public synchronized void write(long pos, ByteBuffer[] srcs, int count)
+        throws IOException {
+        store.write(pos, srcs, count);
+    }
+
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+
+    @Override
+    public synchronized long length() throws IOException {
+        return store.length();
+    }
+
+
+    @Override
+    public synchronized void force() throws IOException {
+        store.force();
+    }
+
+
+    @Override
+    public synchronized void close() throws IOException {
+        store.close();
+    }
+}
@@ -0,0 +1,214 @@
+import java.util.Arrays;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-26-2023
+ * 
+ * @since 11-26-2023
+ * 
+ *        Key-index sort, records are not moved while they are ordered
+ *        One sequential pass copies each record's key and number into a
+ *        tag array that is sorted in memory, then the permutation is
+ *        applied by following its cycles through the pool
+ *        Cycles are started in file order and each record is read and
+ *        written exactly once, records already in place are not touched
+ *        Keys of up to 4 bytes share a long with the record number, wider
+ *        keys are ordered by a merge of record numbers
+ * 
+ */
+public class TagSort {
+    /** Bits of a tag holding the record number */
+    private static final int INDEX_BITS = 31;
+
+    private final RecordLayout layout;
+    private final int rec;
+    private final boolean packed;
+
+    private long bytesMoved;
+    private long cycles;
+
+    /**
+     * Constructor
+     * 
+     * @param layout
+     *            Layout of the records
+     */
+    public TagSort(RecordLayout layout) {
+        this.layout = layout;
+        this.rec = layout.getRecordSize();
+        this.packed = layout.isDefault();
+    }
+
+
+    /**
+     * Sorts every record of the store
+     * 
+     * @param store
+     *            Provides access to the data
+     * @throws Exception
+     */
+    public void sort(RecordStore store) throws Exception {
+        long count = store.getSize() / rec;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Tag sort handles at most "
+                + Integer.MAX_VALUE + " records: " + count);
+        }
+        permute(store, order(store, (int)count));
+    }
+
+
+    /**
+     * Reads every key and sorts the tags
+     * 
+     * @param store
+     *            Provides access to the data
+     * @param count
+     *            Number of records
+     * @return For each position, the number of the record that belongs
+     *         there
+     * @throws Exception
+     */
+    private int[] order(RecordStore store, int count) throws Exception {
+        int perChunk = Math.max(1, store.getBlockSize() / rec);
+        byte[] chunk = new byte[perChunk * rec];
+        if (layout.getKeyWidth() > 4) {
+            long[] keys = new long[count];
+            readKeys(store, count, chunk, keys);
+            int[] order = new int[2 * count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            int src = MemorySort.orderByKey(keys, count, order);
+            return src == 0 ? Arrays.copyOf(order, count) : Arrays.copyOfRange(
+                order, count, 2 * count);
+        }
+
+        // Signed keys are biased to be non-negative, so the key sits in
+        // the high 32 bits and the record number in the low 31
+        long[] tags = new long[count];
+        readKeys(store, count, chunk, tags);
+        RecordLayout.KeyType type = layout.getKeyType();
+        long bias = type == RecordLayout.KeyType.SHORT
+            || type == RecordLayout.KeyType.INT ? 1L << 31 : 0;
+        for (int i = 0; i < count; i++) {
+            tags[i] = ((tags[i] + bias) << INDEX_BITS) | i;
+        }
+        Arrays.sort(tags);
+        int[] source = new int[count];
+        int mask = (1 << INDEX_BITS) - 1;
+        for (int i = 0; i < count; i++) {
+            source[i] = (int)tags[i] & mask;
+        }
+        return source;
+    }
+
+
+    /**
+     * Copies every record's key, reading the file a block at a time
+     * 
+     * @param store
+     *            Provides access to the data
+     * @param count
+     *            Number of records
+     * @param chunk
+     *            Scratch holding whole records
+     * @param keys
+     *            Array receiving the key of each record
+     * @throws Exception
+     */
+    private void readKeys(
+        RecordStore store,
+        int count,
+        byte[] chunk,
+        long[] keys)
+        throws Exception {
+        int perChunk = chunk.length / rec;
+        for (int first = 0; first < count; first += perChunk) {
+            int n = Math.min(perChunk, count - first);
+            store.readBytes((long)first * rec, chunk, 0, n * rec);
+            for (int i = 0; i < n; i++) {
+                keys[first + i] = layout.readKey(chunk, i * rec);
+            }
+        }
+    }
+
+
+    /**
+     * Moves every record to its place by following the permutation's
+     * cycles, a moved position is marked by pointing at itself
+     * 
+     * @param store
+     *            Provides access to the data
+     * @param source
+     *            For each position, the record that belongs there
+     * @throws Exception
+     */
+    private void permute(RecordStore store, int[] source) throws Exception {
+        byte[] held = new byte[rec];
+        byte[] moving = new byte[rec];
+        for (int start = 0; start < source.length; start++) {
+            if (source[start] == start) {
+                continue;
+            }
+            int heldRecord = 0;
+            if (packed) {
+                heldRecord = store.readRecord(position(start));
+            }
+            else {
+                store.readBytes(position(start), held, 0, rec);
+            }
+            int to = start;
+            int from = source[to];
+            while (from != start) {
+                if (packed) {
+                    store.writeRecord(position(to), store.readRecord(position(
+                        from)));
+                }
+                else {
+                    store.readBytes(position(from), moving, 0, rec);
+                    store.writeBytes(position(to), moving, 0, rec);
+                }
+                source[to] = to;
+                to = from;
+                from = source[to];
+                bytesMoved += rec;
+            }
+            if (packed) {
+                store.writeRecord(position(to), heldRecord);
+            }
+            else {
+                store.writeBytes(position(to), held, 0, rec);
+            }
+            source[to] = to;
+            bytesMoved += rec;
+            cycles++;
+        }
+    }
+
+
+    /**
+     * @param index
+     *            Record number
+     * @return Absolute position of the record
+     */
+    private long position(int index) {
+        return (long)index * rec;
+    }
+
+
+    /**
+     * @return Bytes of records written into the store
+     */
+    public long getBytesMoved() {
+        return bytesMoved;
+    }
+
+
+    /**
+     * @return Cycles of the permutation longer than one record
+     */
+    public long getCycles() {
+        return cycles;
+    }
+}
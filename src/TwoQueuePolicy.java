@@ -0,0 +1,80 @@
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-10-2023
+ * 
+ * @since 11-10-2023
+ * 
+ *        2Q replacement (Johnson and Shasha)
+ *        New blocks enter a FIFO, a block only reaches the main LRU list
+ *        if it is requested again after leaving the FIFO, so a single
+ *        scan cannot flush the blocks that are reused
+ * 
+ */
+public class TwoQueuePolicy implements BufferPool.ReplacementPolicy {
+    private static final int IN = 1;
+    private static final int MAIN = 2;
+
+    private BufferList in = new BufferList();
+    private BufferList main = new BufferList();
+    private LinkedHashSet<Long> out = new LinkedHashSet<Long>();
+    private int maxIn;
+    private int maxOut;
+
+    /**
+     * Constructor
+     * 
+     * @param numBuffers
+     *            Number of buffers within the pool
+     */
+    public TwoQueuePolicy(int numBuffers) {
+        this.maxIn = Math.max(1, numBuffers / 4);
+        this.maxOut = Math.max(1, numBuffers / 2);
+    }
+
+
+    @Override
+    public void recordHit(Buffer buff) {
+        if (buff.getTag() == MAIN) {
+            main.moveToFront(buff);
+        }
+    }
+
+
+    @Override
+    public void recordLoad(Buffer buff) {
+        if (out.remove(buff.getPos())) {
+            buff.setTag(MAIN);
+            main.addFirst(buff);
+        }
+        else {
+            buff.setTag(IN);
+            in.addFirst(buff);
+        }
+    }
+
+
+    @Override
+    public Buffer evict(long pos) {
+        if (in.size() > maxIn || main.size() == 0) {
+            Buffer victim = in.removeLast();
+            out.add(victim.getPos());
+            if (out.size() > maxOut) {
+                Iterator<Long> oldest = out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            return victim;
+        }
+        return main.removeLast();
+    }
+
+
+    @Override
+    public String getName() {
+        return "2Q";
+    }
+}
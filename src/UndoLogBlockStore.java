@@ -0,0 +1,272 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-28-2023
+ * 
+ * @since 11-28-2023
+ * 
+ *        BlockStore that keeps the data file recoverable to its last
+ *        checkpoint
+ *        Before a block is first overwritten after a checkpoint its bytes
+ *        on disk are appended to an undo log and the log is forced, so
+ *        undo can always put back the checkpoint's blocks
+ *        The log starts with the epoch of the checkpoint it undoes to,
+ *        a log of another epoch is stale and ignored
+ * 
+ */
+public class UndoLogBlockStore implements BlockStore {
+    /** Bytes before each logged block: its position and length */
+    private static final int ENTRY_HEADER = 12;
+
+    private BlockStore store;
+    private FileChannel log;
+    private int blockSize;
+    private BitSet logged = new BitSet();
+    private byte[] before;
+    private ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER);
+    private long loggedBlocks;
+
+    /**
+     * Constructor, starts an empty log
+     * 
+     * @param store
+     *            Store holding the data file
+     * @param logPath
+     *            Undo log filename
+     * @param blockSize
+     *            Size of the blocks logged
+     * @param epoch
+     *            Checkpoint the data file is at now
+     * @throws IOException
+     */
+    public UndoLogBlockStore(
+        BlockStore store,
+        String logPath,
+        int blockSize,
+        long epoch)
+        throws IOException {
+        this.store = store;
+        this.blockSize = blockSize;
+        this.before = new byte[blockSize];
+        this.log = FileChannel.open(Paths.get(logPath),
+            StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        commit(epoch);
+    }
+
+
+    /**
+     * Empties the log once the data file is durably at a new checkpoint
+     * 
+     * @param epoch
+     *            The new checkpoint
+     * @throws IOException
+     */
+    public void commit(long epoch) throws IOException {
+        logged.clear();
+        log.truncate(0);
+        ByteBuffer head = ByteBuffer.allocate(8).putLong(0, epoch);
+        writeFully(log, head, 0);
+        log.force(false);
+    }
+
+
+    /**
+     * Logs the blocks a write is about to change for the first time
+     * since the checkpoint
+     * 
+     * @param pos
+     *            Absolute position of the write
+     * @param len
+     *            Bytes written
+     * @throws IOException
+     */
+    private void saveBefore(long pos, long len) throws IOException {
+        boolean appended = false;
+        for (long b = pos / blockSize; b * blockSize < pos + len; b++) {
+            if (logged.get((int)b)) {
+                continue;
+            }
+            logged.set((int)b);
+            int n = store.read(b * blockSize, before, 0, blockSize);
+            if (n <= 0) {
+                continue;
+            }
+            long at = log.size();
+            entry.clear();
+            entry.putLong(b * blockSize).putInt(n).flip();
+            writeFully(log, entry, at);
+            writeFully(log, ByteBuffer.wrap(before, 0, n), at
+                + ENTRY_HEADER);
+            loggedBlocks++;
+            appended = true;
+        }
+        if (appended) {
+            log.force(false);
+        }
+    }
+
+
+    /**
+     * Puts back the blocks of an undo log, returning the data file to the
+     * checkpoint the log belongs to
+     * 
+     * @param store
+     *            Store holding the data file
+     * @param logPath
+     *            Undo log filename
+     * @param epoch
+     *            Checkpoint the journal holds, a log of another epoch is
+     *            left alone
+     * @return Number of blocks put back
+     * @throws IOException
+     */
+    public static int undo(BlockStore store, String logPath, long epoch)
+        throws IOException {
+        Path path = Paths.get(logPath);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        int restored = 0;
+        try (FileChannel log = FileChannel.open(path,
+            StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(ENTRY_HEADER);
+            head.limit(8);
+            if (!readFully(log, head, 0) || head.getLong(0) != epoch) {
+                return 0;
+            }
+            // An entry cut short by a crash was never followed by its
+            // write, so the log ends at the first incomplete entry
+            long at = 8;
+            long size = log.size();
+            while (true) {
+                head.clear();
+                if (!readFully(log, head, at)) {
+                    break;
+                }
+                long pos = head.getLong(0);
+                int len = head.getInt(8);
+                if (len <= 0 || at + ENTRY_HEADER + len > size) {
+                    break;
+                }
+                byte[] data = new byte[len];
+                readFully(log, ByteBuffer.wrap(data), at + ENTRY_HEADER);
+                store.write(pos, data, 0, len);
+                at += ENTRY_HEADER + len;
+                restored++;
+            }
+        }
+        store.force();
+        return restored;
+    }
+
+
+    /**
+     * @param channel
+     *            File read
+     * @param dst
+     *            Filled up to its limit
+     * @param at
+     *            Position in the file
+     * @return False if the file ended first
+     * @throws IOException
+     */
+    private static boolean readFully(
+        FileChannel channel,
+        ByteBuffer dst,
+        long at)
+        throws IOException {
+        int start = dst.position();
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, at + dst.position() - start);
+            if (n < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * @param channel
+     *            File written
+     * @param src
+     *            Written up to its limit
+     * @param at
+     *            Position in the file
+     * @throws IOException
+     */
+    private static void writeFully(
+        FileChannel channel,
+        ByteBuffer src,
+        long at)
+        throws IOException {
+        int start = src.position();
+        while (src.hasRemaining()) {
+            channel.write(src, at + src.position() - start);
+        }
+    }
+
+
+    /**
+     * @return Blocks logged since the store was opened
+     */
+    public long getLoggedBlocks() {
+        return loggedBlocks;
+    }
+
+
+    @Override
+    public int read(long pos, byte[] data, int off, int len)
+        throws IOException {
+        return store.read(pos, data, off, len);
+    }
+
+
+    @Override
+    public void write(long pos, byte[] data, int off, int len)
+        throws IOException {
+        saveBefore(pos, len);
+        store.write(pos, data, off, len);
+    }
+
+
+    @Override
+    public void write(long pos, ByteBuffer[] srcs, int count)
+        throws IOException {
+        long len = 0;
+        for (int i = 0; i < count; i++) {
+            len += srcs[i].remaining();
+        }
+        saveBefore(pos, len);
+        store.write(pos, srcs, count);
+    }
+
+
+    @Override
+    public long length() throws IOException {
+        return store.length();
+    }
+
+
+    @Override
+    public void force() throws IOException {
+        store.force();
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+        store.close();
+    }
+}
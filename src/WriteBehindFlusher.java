@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * @author Xavier Akers
+ * 
+ * @version Last Updated 11-12-2023
+ * 
+ * @since 11-12-2023
+ * 
+ *        Background writer for dirty buffers evicted from a BufferPool
+ *        An evicted buffer hands its bytes to a spare buffer that waits in
+ *        a bounded queue, so the miss can read its block straight away
+ *        A block requested again before its write finishes is taken back
+ *        from the queue, or waited for if the write already started
+ * 
+ */
+public class WriteBehindFlusher implements Runnable {
+    private BufferPool pool;
+    private ArrayDeque<Buffer> spares;
+    private ArrayDeque<Buffer> queue;
+    private Buffer writing;
+    private long written;
+    private boolean stopped;
+    private IOException failure;
+    private Thread thread;
+
+    /**
+     * Constructor, starts the flusher thread
+     * 
+     * @param pool
+     *            Pool whose evicted buffers are written
+     * @param depth
+     *            Number of spare buffers, which bounds the queue
+     * @param bufferSize
+     *            Size of each buffer
+     */
+    public WriteBehindFlusher(BufferPool pool, int depth, int bufferSize) {
+        this.pool = pool;
+        this.spares = new ArrayDeque<Buffer>(depth);
+        this.queue = new ArrayDeque<Buffer>(depth);
+        for (int i = 0; i < depth; i++) {
+            spares.add(new Buffer(bufferSize));
+        }
+        this.thread = new Thread(this, "write-behind");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Queues a dirty buffer's bytes for writing
+     * Only waits if every spare is still queued or being written
+     * 
+     * @param dirty
+     *            Evicted buffer, left holding a spare's array
+     * @throws Exception
+     */
+    public synchronized void writeLater(Buffer dirty) throws Exception {
+        while (spares.isEmpty()) {
+            checkFailure();
+            wait();
+        }
+        Buffer spare = spares.poll();
+        spare.setPos(dirty.getPos());
+        spare.swapData(dirty);
+        spare.takeDirty(dirty);
+        queue.add(spare);
+        notifyAll();
+    }
+
+
+    /**
+     * Recovers a block whose write is still pending
+     * 
+     * @param pos
+     *            Absolute position of the block
+     * @param target
+     *            Buffer receiving the block's bytes
+     * @return True if the block was pending, false if it must be read
+     * @throws Exception
+     */
+    public synchronized boolean reclaim(long pos, Buffer target)
+        throws Exception {
+        Iterator<Buffer> it = queue.iterator();
+        while (it.hasNext()) {
+            Buffer queued = it.next();
+            if (queued.getPos() == pos) {
+                // Never written, so the bytes stay dirty
+                it.remove();
+                target.swapData(queued);
+                target.takeDirty(queued);
+                queued.setIsDirty(false);
+                spares.add(queued);
+                notifyAll();
+                return true;
+            }
+        }
+        Buffer inFlight = writing;
+        if (inFlight != null && inFlight.getPos() == pos) {
+            while (writing == inFlight) {
+                wait();
+            }
+            checkFailure();
+            // The spare stays idle until the next writeLater on this thread
+            target.swapData(inFlight);
+            target.setIsDirty(false);
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * @param pos
+     *            Absolute position of a block
+     * @return True if the block is queued or being written
+     */
+    public synchronized boolean isPending(long pos) {
+        if (writing != null && writing.getPos() == pos) {
+            return true;
+        }
+        for (Buffer queued : queue) {
+            if (queued.getPos() == pos) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Waits until every queued buffer is on disk
+     * 
+     * @throws Exception
+     */
+    public synchronized void drain() throws Exception {
+        while (!queue.isEmpty() || writing != null) {
+            wait();
+        }
+        checkFailure();
+    }
+
+
+    /**
+     * Drains the queue and ends the flusher thread
+     * 
+     * @throws Exception
+     */
+    public void stop() throws Exception {
+        drain();
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        thread.join();
+    }
+
+
+    /**
+     * @return Number of buffers written by the flusher thread
+     */
+    public synchronized long getWritten() {
+        return written;
+    }
+
+
+    /**
+     * Rethrows a write failure on the pool's thread
+     * 
+     * @throws IOException
+     */
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+
+    @Override
+    public void run() {
+        while (true) {
+            Buffer buff;
+            synchronized (this) {
+                while (queue.isEmpty() && !stopped) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (queue.isEmpty()) {
+                    return;
+                }
+                buff = queue.poll();
+                writing = buff;
+            }
+            try {
+                pool.writeBack(buff);
+            }
+            catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                }
+            }
+            synchronized (this) {
+                buff.setIsDirty(false);
+                spares.add(buff);
+                writing = null;
+                written++;
+                notifyAll();
+            }
+        }
+    }
+}